@@ -0,0 +1,108 @@
+package org.example.myjavafx;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AdmissionController holds the chat server's overall limits: how many clients may be connected,
+ * how many bytes per second all of them together may send, and how many messages per second each
+ * client may send. Everything is lock-free, so client handlers can consult it on every read.
+ */
+public class AdmissionController {
+
+    /** Sent to a client that connects while the server is full, before it is disconnected. */
+    public static final String SERVER_FULL_NOTICE = "*** Server is full, please try again later ***";
+    /** Sent to a client whose messages are dropped for arriving too fast. */
+    public static final String THROTTLED_NOTICE = "*** You are sending too fast; messages are being dropped ***";
+
+    private final int maxConnections;
+    private final double clientMessagesPerSecond;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final RateLimiter inboundBytes;
+    private final LongAdder refused = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+
+    /**
+     * Creates the controller. A limit of 0 or less means unlimited.
+     *
+     * @param maxConnections           The most clients connected at once.
+     * @param maxInboundBytesPerSecond The most bytes per second read from all clients together.
+     * @param clientMessagesPerSecond  The average messages per second allowed from one client.
+     */
+    public AdmissionController(int maxConnections, long maxInboundBytesPerSecond, double clientMessagesPerSecond) {
+        this.maxConnections = maxConnections > 0 ? maxConnections : Integer.MAX_VALUE;
+        this.clientMessagesPerSecond = clientMessagesPerSecond;
+        // A second's worth may arrive at once
+        this.inboundBytes = new RateLimiter(maxInboundBytesPerSecond, maxInboundBytesPerSecond);
+    }
+
+    /**
+     * Counts a new connection in, unless the server is full.
+     *
+     * @return True if the client is admitted and must later be {@link #release() released}.
+     */
+    public boolean tryAdmit() {
+        if (connections.incrementAndGet() > maxConnections) {
+            connections.decrementAndGet();
+            refused.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Counts an admitted connection out when it closes.
+     */
+    public void release() {
+        connections.decrementAndGet();
+    }
+
+    /**
+     * Accounts for bytes just read from a client. Not reading from a client for a while lets its
+     * socket buffers fill up, which slows the sender down through TCP.
+     *
+     * @param bytes The number of bytes read.
+     * @return How long, in nanoseconds, that client's reads should pause so all clients together stay
+     * within the inbound limit; 0 if not at all.
+     */
+    public long onBytesRead(long bytes) {
+        return inboundBytes.reserve(bytes);
+    }
+
+    /**
+     * Creates the message limiter for a new client: the per-client rate, in bursts of up to twice that.
+     *
+     * @return The limiter.
+     */
+    public RateLimiter newClientLimiter() {
+        return new RateLimiter(clientMessagesPerSecond, 2 * clientMessagesPerSecond);
+    }
+
+    /**
+     * Counts a message dropped by a client's limiter.
+     */
+    public void onThrottled() {
+        throttled.increment();
+    }
+
+    /**
+     * @return The number of clients connected now.
+     */
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * @return The number of clients refused because the server was full.
+     */
+    public long getRefusedCount() {
+        return refused.sum();
+    }
+
+    /**
+     * @return The number of messages dropped because a client sent too fast.
+     */
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+}
@@ -3,21 +3,48 @@ package org.example.myjavafx;
 import javafx.application.Platform;
 import javafx.collections.ObservableList;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * ChatClient handles the network communication for the JavaFX chat application.
  * It connects to the server, sends messages, and receives messages in a separate thread.
+ * It speaks the binary {@link ChatFrame} protocol when the server supports it: messages are sent
+ * without waiting for the previous one to be acknowledged, and a heartbeat keeps idle connections alive.
+ * A server that does not echo the protocol's magic bytes is spoken to in newline-delimited text.
  */
 public class ChatClient {
 
+    // Seconds between heartbeats on an otherwise idle connection
+    private static final int HEARTBEAT_SECONDS = 15;
+    // How long to wait for the server to confirm the binary protocol before falling back to text
+    private static final int MAGIC_TIMEOUT_MILLIS = 2000;
+
     private Socket socket;
-    private BufferedReader in;
-    private PrintWriter out;
+    private DataInputStream in;
+    private DataOutputStream out;
+    // Reads server lines when the server only speaks text
+    private BufferedReader lines;
+    private boolean framed;
+    private final AtomicLong nextFrameId = new AtomicLong();
+    // Messages sent but not yet acknowledged by the server, by frame id
+    private final Map<Long, String> unacked = new ConcurrentHashMap<>();
+    private ScheduledExecutorService heartbeat;
     private ObservableList<String> messageList; // Reference to the ListView's items
     private String username;
     private boolean connected = false;
@@ -44,16 +71,33 @@ public class ChatClient {
     public boolean connect(String serverAddress, int serverPort, String username) {
         this.username = username;
         try {
-            // Establish socket connection to the server
-            socket = new Socket(serverAddress, serverPort);
-            // Initialize input and output streams
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(socket.getOutputStream(), true); // true for auto-flush
+            // Establish socket connection to the server and offer the binary protocol
+            open(serverAddress, serverPort);
+            framed = offerFrames();
+            if (!framed) {
+                // A text-only server has taken the magic bytes as the start of the first line: start over in text
+                socket.close();
+                open(serverAddress, serverPort);
+                lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            }
 
             // Send the username to the server immediately after connecting
-            out.println(username);
+            if (framed) {
+                sendFrame(ChatFrame.HELLO, username);
+            } else {
+                sendLine(username);
+            }
             connected = true;
 
+            if (framed) {
+                heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "chat-heartbeat");
+                    t.setDaemon(true);
+                    return t;
+                });
+                heartbeat.scheduleAtFixedRate(this::sendHeartbeat, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+            }
+
             // Start a new thread to listen for incoming messages from the server.
             // This thread runs continuously in the background, allowing the UI thread
             // to remain responsive.
@@ -67,20 +111,69 @@ public class ChatClient {
         }
     }
 
+    /**
+     * Opens the socket and its streams.
+     *
+     * @param serverAddress The IP address or hostname of the server.
+     * @param serverPort The port number of the server.
+     * @throws IOException If the connection fails.
+     */
+    private void open(String serverAddress, int serverPort) throws IOException {
+        socket = new Socket(serverAddress, serverPort);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Offers the binary protocol; the server confirms by echoing the magic bytes.
+     *
+     * @return true if the server confirmed, false if it answered anything else or nothing in time.
+     * @throws IOException If the connection fails.
+     */
+    private boolean offerFrames() throws IOException {
+        out.write(ChatFrame.MAGIC);
+        out.flush();
+        socket.setSoTimeout(MAGIC_TIMEOUT_MILLIS);
+        try {
+            return Arrays.equals(in.readNBytes(ChatFrame.MAGIC.length), ChatFrame.MAGIC);
+        } catch (SocketTimeoutException e) {
+            return false;
+        } finally {
+            socket.setSoTimeout(0);
+        }
+    }
+
     /**
      * Listens for messages from the server. This method runs in a dedicated thread.
      * Messages are added to the ObservableList, which automatically updates the UI.
      */
     private void listenForMessages() {
         try {
-            String message;
-            // Continuously read messages from the server. This is a blocking call,
+            if (!framed) {
+                String line;
+                while (connected && (line = lines.readLine()) != null) {
+                    final String receivedMessage = line;
+                    Platform.runLater(() -> messageList.add(receivedMessage));
+                }
+                return;
+            }
+            ChatFrame frame;
+            // Continuously read frames from the server. This is a blocking call,
             // so it must be on a separate thread to avoid freezing the UI.
-            while (connected && (message = in.readLine()) != null) {
-                // Update the UI on the JavaFX Application Thread.
-                // Platform.runLater ensures thread-safe UI updates.
-                final String receivedMessage = message;
-                Platform.runLater(() -> messageList.add(receivedMessage));
+            while (connected && (frame = ChatFrame.read(in)) != null) {
+                if (frame.getType() == ChatFrame.ACK) {
+                    unacked.remove(frame.getId());
+                } else if (frame.getType() == ChatFrame.THROTTLE) {
+                    // Dropped by the server for arriving too fast: it will never be acknowledged
+                    String dropped = unacked.remove(frame.getId());
+                    final String notice = frame.getPayload() + (dropped != null ? " (not delivered: \"" + dropped + "\")" : "");
+                    Platform.runLater(() -> messageList.add(notice));
+                } else if (frame.getType() == ChatFrame.MESSAGE) {
+                    // Update the UI on the JavaFX Application Thread.
+                    // Platform.runLater ensures thread-safe UI updates.
+                    final String receivedMessage = frame.getPayload();
+                    Platform.runLater(() -> messageList.add(receivedMessage));
+                }
             }
         } catch (IOException e) {
             if (connected) { // Only show error if disconnection was not intentional
@@ -99,17 +192,78 @@ public class ChatClient {
      */
     public void sendMessage(String message) {
         if (out != null && !socket.isClosed()) {
-            out.println(message);
+            try {
+                if (framed) {
+                    sendFrame(ChatFrame.MESSAGE, message);
+                } else {
+                    sendLine(message);
+                }
+            } catch (IOException e) {
+                Platform.runLater(() -> messageList.add("Error: Could not send message: " + e.getMessage()));
+            }
         } else {
             Platform.runLater(() -> messageList.add("Error: Not connected to server."));
         }
     }
 
+    /**
+     * Returns how many sent messages the server has not acknowledged yet.
+     *
+     * @return The number of unacknowledged messages.
+     */
+    public int getUnacknowledgedCount() {
+        return unacked.size();
+    }
+
+    /**
+     * Writes one frame under the next id; a MESSAGE is remembered until the server acknowledges it.
+     * Called from the UI thread, the connecting thread and the heartbeat thread.
+     *
+     * @param type    The frame type.
+     * @param payload The frame payload.
+     * @throws IOException If the write fails.
+     */
+    private synchronized void sendFrame(byte type, String payload) throws IOException {
+        long id = nextFrameId.incrementAndGet();
+        // A message is tracked before it is written: its ACK can come back before write() returns
+        if (type == ChatFrame.MESSAGE) unacked.put(id, payload);
+        try {
+            out.write(ChatFrame.encode(type, id, payload));
+            out.flush();
+        } catch (IOException e) {
+            unacked.remove(id);
+            throw e;
+        }
+    }
+
+    /**
+     * Writes one line to a text-only server.
+     *
+     * @param line The line, without its terminator.
+     * @throws IOException If the write fails.
+     */
+    private synchronized void sendLine(String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /**
+     * Sends a heartbeat frame; the server answers it, keeping an idle connection alive.
+     */
+    private void sendHeartbeat() {
+        try {
+            sendFrame(ChatFrame.HEARTBEAT, null);
+        } catch (IOException e) {
+            heartbeat.shutdown();
+        }
+    }
+
     /**
      * Disconnects the client from the server and closes all resources.
      */
     public void disconnect() {
         connected = false;
+        if (heartbeat != null) heartbeat.shutdownNow();
         try {
             if (in != null) in.close();
             if (out != null) out.close();
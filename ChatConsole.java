@@ -0,0 +1,71 @@
+package org.example.myjavafx;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * ChatConsole is the console output of the chat server.
+ * <p>
+ * {@code System.out.println} is synchronized and slow, so it must not run for every message on the
+ * broadcast path: lines below the configured level are skipped before their text is built, and
+ * per-message lines are sampled, one in N printed, chosen at random without any shared state.
+ */
+public final class ChatConsole {
+
+    /**
+     * How important a console line is; a line is printed if its level is at or above the configured one.
+     */
+    public enum Level {
+        ERROR, WARN, INFO, DEBUG
+    }
+
+    private static volatile Level level = Level.INFO;
+    private static volatile int sampleRate = 100;
+
+    private ChatConsole() {
+    }
+
+    /**
+     * Sets what is printed.
+     *
+     * @param levelName {@code error}, {@code warn}, {@code info} or {@code debug}.
+     * @param rate      Per-message lines are printed for one in this many messages; 1 prints all.
+     */
+    public static void configure(String levelName, int rate) {
+        level = Level.valueOf(levelName.toUpperCase(Locale.ROOT));
+        sampleRate = Math.max(1, rate);
+    }
+
+    /**
+     * @param lineLevel The level of a line.
+     * @return Whether lines of that level are printed.
+     */
+    public static boolean isEnabled(Level lineLevel) {
+        return lineLevel.compareTo(level) <= 0;
+    }
+
+    /**
+     * Prints a line if its level is enabled; errors and warnings go to standard error.
+     *
+     * @param lineLevel The level of the line.
+     * @param message   The line.
+     */
+    public static void log(Level lineLevel, String message) {
+        if (!isEnabled(lineLevel)) return;
+        (lineLevel.compareTo(Level.WARN) <= 0 ? System.err : System.out).println(message);
+    }
+
+    /**
+     * Prints a per-message line for a sample of the messages. The line is only built if it is printed.
+     *
+     * @param lineLevel The level of the line.
+     * @param message   Builds the line.
+     */
+    public static void sampled(Level lineLevel, Supplier<String> message) {
+        if (!isEnabled(lineLevel)) return;
+        int rate = sampleRate;
+        if (rate > 1 && ThreadLocalRandom.current().nextInt(rate) != 0) return;
+        log(lineLevel, rate > 1 ? message.get() + " [1 in " + rate + "]" : message.get());
+    }
+}
@@ -0,0 +1,202 @@
+package org.example.myjavafx;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ChatFrame is the binary chat wire format.
+ * A client offers it by sending {@link #MAGIC} as its first four bytes, and the server confirms by
+ * echoing {@link #MAGIC}; a client that starts with anything else stays on newline-delimited text.
+ * <p>
+ * Frame layout: {@code int length} (of everything after it), {@code byte type}, {@code long id},
+ * {@code long timestamp} (epoch millis), then the UTF-8 payload.
+ * Clients number their frames and may send many without waiting; the server acknowledges each id it
+ * has handled with an {@link #ACK} frame.
+ */
+public final class ChatFrame {
+    /** The first bytes a client sends to select this protocol. */
+    public static final byte[] MAGIC = {'C', 'H', 'F', '1'};
+    /** Size of type, id and timestamp. */
+    public static final int HEADER_BYTES = 1 + 8 + 8;
+    /** Largest accepted payload. */
+    public static final int MAX_PAYLOAD_BYTES = 64 * 1024;
+
+    /** Payload: the client's username. Sent once, first. */
+    public static final byte HELLO = 1;
+    /** Payload: one chat message. */
+    public static final byte MESSAGE = 2;
+    /** Id: the id of the handled frame. */
+    public static final byte ACK = 3;
+    /** Answered with a HEARTBEAT carrying the same id. */
+    public static final byte HEARTBEAT = 4;
+    /** Id: the id of a frame the server dropped because the client sent too fast. Payload: a notice. */
+    public static final byte THROTTLE = 5;
+
+    private final byte type;
+    private final long id;
+    private final long timestamp;
+    private final String payload;
+
+    /**
+     * Creates a decoded frame.
+     *
+     * @param type      The frame type.
+     * @param id        The sender's id for this frame.
+     * @param timestamp When the frame was sent, in epoch millis.
+     * @param payload   The text payload.
+     */
+    public ChatFrame(byte type, long id, long timestamp, String payload) {
+        this.type = type;
+        this.id = id;
+        this.timestamp = timestamp;
+        this.payload = payload;
+    }
+
+    /**
+     * @return The frame type.
+     */
+    public byte getType() {
+        return type;
+    }
+
+    /**
+     * @return The frame id.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return When the frame was sent, in epoch millis.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return The text payload.
+     */
+    public String getPayload() {
+        return payload;
+    }
+
+    /**
+     * Shortens text so that it fits in one frame's payload, cutting it at a character boundary.
+     * Everything the server composes from client input (e.g. "name: message") must pass through this:
+     * a frame the server sends over the limit would be rejected by every framed client.
+     *
+     * @param text The text.
+     * @return The text, or its longest prefix of at most {@link #MAX_PAYLOAD_BYTES} UTF-8 bytes.
+     */
+    public static String fitPayload(String text) {
+        return fitPayload(text, MAX_PAYLOAD_BYTES);
+    }
+
+    /**
+     * Shortens text to at most a given number of UTF-8 bytes, cutting it at a character boundary.
+     *
+     * @param text     The text.
+     * @param maxBytes The size limit.
+     * @return The text, or its longest prefix of at most maxBytes UTF-8 bytes.
+     */
+    public static String fitPayload(String text, int maxBytes) {
+        // A char is at most 3 UTF-8 bytes; surrogate pairs are 4 bytes for 2 chars
+        if (text.length() * 3 <= maxBytes) return text;
+        int bytes = 0;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            bytes += codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+            if (bytes > maxBytes) return text.substring(0, i);
+            i += Character.charCount(codePoint);
+        }
+        return text;
+    }
+
+    /**
+     * Encodes a frame, stamped with the current time.
+     *
+     * @param type    The frame type.
+     * @param id      The frame id.
+     * @param payload The text payload, or null for none.
+     * @return The frame bytes, including the length field.
+     */
+    public static byte[] encode(byte type, long id, String payload) {
+        byte[] text = payload == null ? new byte[0] : payload.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(4 + HEADER_BYTES + text.length);
+        frame.putInt(HEADER_BYTES + text.length)
+                .put(type)
+                .putLong(id)
+                .putLong(System.currentTimeMillis())
+                .put(text);
+        return frame.array();
+    }
+
+    /**
+     * Decodes one frame body (everything after the length field).
+     *
+     * @param bytes  The buffer holding the body.
+     * @param offset Where the body starts.
+     * @param length The body length.
+     * @return The frame.
+     */
+    public static ChatFrame decode(byte[] bytes, int offset, int length) {
+        ByteBuffer body = ByteBuffer.wrap(bytes, offset, length);
+        byte type = body.get();
+        long id = body.getLong();
+        long timestamp = body.getLong();
+        String payload = new String(bytes, offset + HEADER_BYTES, length - HEADER_BYTES, StandardCharsets.UTF_8);
+        return new ChatFrame(type, id, timestamp, payload);
+    }
+
+    /**
+     * Reads one frame from a blocking stream.
+     *
+     * @param in The stream.
+     * @return The frame, or null at end of stream.
+     * @throws IOException If the stream fails or the frame length is invalid.
+     */
+    public static ChatFrame read(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (!isValidLength(length)) throw new IOException("Bad chat frame length " + length);
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return decode(body, 0, length);
+    }
+
+    /**
+     * @param length A frame length field.
+     * @return True if a frame of that length is acceptable.
+     */
+    public static boolean isValidLength(int length) {
+        return length >= HEADER_BYTES && length <= HEADER_BYTES + MAX_PAYLOAD_BYTES;
+    }
+
+    /**
+     * Reads the first bytes of a connection, consuming them only if they are {@link #MAGIC}.
+     * Stops at the first byte that differs, so a short text line is never waited on.
+     *
+     * @param in A stream supporting mark/reset.
+     * @return True if the client selected this protocol.
+     * @throws IOException If the stream fails.
+     */
+    public static boolean readMagic(InputStream in) throws IOException {
+        in.mark(MAGIC.length);
+        for (byte expected : MAGIC) {
+            if (in.read() != expected) {
+                in.reset();
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,230 @@
+package org.example.myjavafx;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * ChatHistory keeps the most recent broadcasts so that a newly connected client can be shown
+ * what was said before it joined.
+ * <p>
+ * Each broadcast is stored already encoded, once as a text line and once as a {@link ChatFrame},
+ * in two ring regions of a memory-mapped file; a small in-memory index remembers where each message
+ * starts and when it was sent. Because consecutive messages are contiguous in a region, a client's
+ * replay is at most two byte ranges of the ring, which {@link Replay#transferTo} copies to the
+ * socket a chunk at a time instead of re-encoding the messages for every client.
+ * <p>
+ * A replay is sent whenever the client's outbox gets to it, and the ring keeps turning meanwhile.
+ * Each chunk is copied out under the history's lock after checking that it has not been overwritten;
+ * a replay that new messages have overtaken is abandoned rather than sent corrupted.
+ * <p>
+ * Broadcast ids are assigned here, in the same order the messages enter the ring, so a replay can
+ * tell exactly which live broadcasts it already contains.
+ */
+public class ChatHistory implements Closeable {
+
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final int regionBytes;
+    private final int maxMessages;
+    private final long maxAgeMillis;
+    // Largest piece of a replay copied out of the ring at once, while holding the lock
+    private static final int REPLAY_CHUNK_BYTES = 64 * 1024;
+
+    // Index ring: slot (id % maxMessages) describes message id
+    private final long[] times;
+    private final long[] lineStarts;
+    private final long[] frameStarts;
+    private long lastId;
+    // Total bytes ever written to each region; a region position is the total modulo regionBytes
+    private long lineTotal;
+    private long frameTotal;
+
+    /**
+     * An encoded broadcast, ready to be queued for every client.
+     */
+    public static final class Message {
+        private final long id;
+        private final byte[] line;
+        private final byte[] frame;
+
+        private Message(long id, byte[] line, byte[] frame) {
+            this.id = id;
+            this.line = line;
+            this.frame = frame;
+        }
+
+        /**
+         * @return The broadcast id, increasing by one per message.
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * @return The message as a text line, including the line terminator.
+         */
+        public byte[] getLine() {
+            return line;
+        }
+
+        /**
+         * @return The message as a {@link ChatFrame}.
+         */
+        public byte[] getFrame() {
+            return frame;
+        }
+    }
+
+    /**
+     * The recent history for one client, sent from the mapped file when the client's outbox gets to it.
+     */
+    public final class Replay implements ClientOutbox.Transfer {
+        private final long start;
+        private final long end;
+        private final long regionOffset;
+        private final long lastId;
+
+        private Replay(long start, long end, long regionOffset, long lastId) {
+            this.start = start;
+            this.end = end;
+            this.regionOffset = regionOffset;
+            this.lastId = lastId;
+        }
+
+        /**
+         * @return The id of the newest message in the replay; later broadcasts are not in it.
+         */
+        public long getLastId() {
+            return lastId;
+        }
+
+        /**
+         * Sends the replay.
+         *
+         * @param target The client's channel.
+         * @throws IOException If writing fails, or if new messages have overwritten part of the replay
+         *                     before it was sent.
+         */
+        @Override
+        public void transferTo(WritableByteChannel target) throws IOException {
+            if (start == end) return;
+            ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(end - start, REPLAY_CHUNK_BYTES));
+            long position = start;
+            while (position < end) {
+                chunk.clear();
+                synchronized (ChatHistory.this) {
+                    // The ring holds the last regionBytes bytes written to the region
+                    long written = regionOffset == 0 ? lineTotal : frameTotal;
+                    if (written - position > regionBytes) {
+                        throw new IOException("Chat history replay overtaken by new messages");
+                    }
+                    long ringPosition = position % regionBytes;
+                    // Up to the end of the range, the end of the region or a full chunk, whichever comes first
+                    int count = (int) Math.min(Math.min(end - position, regionBytes - ringPosition), chunk.capacity());
+                    map.get((int) (regionOffset + ringPosition), chunk.array(), 0, count);
+                    chunk.limit(count);
+                }
+                // Written outside the lock: a slow client must not hold up broadcasts
+                while (chunk.hasRemaining()) {
+                    target.write(chunk);
+                }
+                position += chunk.limit();
+            }
+        }
+    }
+
+    /**
+     * Creates (or truncates) the mapped history file.
+     *
+     * @param file         The file backing the ring.
+     * @param regionBytes  Size of each of the two regions (text lines and frames).
+     * @param maxMessages  The most messages a replay contains.
+     * @param maxAgeMillis The oldest message a replay contains, by age.
+     * @throws IOException If the file cannot be created or mapped.
+     */
+    public ChatHistory(Path file, int regionBytes, int maxMessages, long maxAgeMillis) throws IOException {
+        this.regionBytes = regionBytes;
+        this.maxMessages = maxMessages;
+        this.maxAgeMillis = maxAgeMillis;
+        this.times = new long[maxMessages];
+        this.lineStarts = new long[maxMessages];
+        this.frameStarts = new long[maxMessages];
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * regionBytes);
+    }
+
+    /**
+     * Encodes a broadcast, assigns it the next id and adds it to the history.
+     *
+     * @param message   The message text.
+     * @param timestamp When it was sent, in epoch millis.
+     * @return The encoded message.
+     */
+    public synchronized Message add(String message, long timestamp) {
+        long id = ++lastId;
+        byte[] line = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        byte[] frame = ChatFrame.encode(ChatFrame.MESSAGE, id, message);
+
+        int slot = (int) (id % maxMessages);
+        times[slot] = timestamp;
+        lineStarts[slot] = lineTotal;
+        frameStarts[slot] = frameTotal;
+        lineTotal = write(0, lineTotal, line);
+        frameTotal = write(regionBytes, frameTotal, frame);
+        return new Message(id, line, frame);
+    }
+
+    /**
+     * Takes the recent history for a new client: the last messages within the count and age limits
+     * that are still in the ring.
+     *
+     * @param framed Whether the client speaks the {@link ChatFrame} protocol rather than text.
+     * @return The replay, possibly empty.
+     */
+    public synchronized Replay replay(boolean framed) {
+        long total = framed ? frameTotal : lineTotal;
+        long[] starts = framed ? frameStarts : lineStarts;
+        long oldestTime = System.currentTimeMillis() - maxAgeMillis;
+        // A replay covers at most half a region, leaving room for new messages while the client reads it;
+        // transferTo abandons a replay that is overwritten anyway
+        long oldestStart = total - regionBytes / 2;
+
+        long start = total;
+        for (long id = lastId; id > 0 && id > lastId - maxMessages; id--) {
+            int slot = (int) (id % maxMessages);
+            if (times[slot] < oldestTime || starts[slot] < oldestStart) break;
+            start = starts[slot];
+        }
+        return new Replay(start, total, framed ? regionBytes : 0, lastId);
+    }
+
+    /**
+     * Flushes the mapped ring and closes the file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        map.force();
+        channel.close();
+    }
+
+    // Copies bytes into a region at the given running total, wrapping around its end
+    private long write(int regionOffset, long total, byte[] bytes) {
+        int offset = 0;
+        while (offset < bytes.length) {
+            int ringPosition = (int) (total % regionBytes);
+            int count = Math.min(bytes.length - offset, regionBytes - ringPosition);
+            map.put(regionOffset + ringPosition, bytes, offset, count);
+            offset += count;
+            total += count;
+        }
+        return total;
+    }
+}
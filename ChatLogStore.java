@@ -0,0 +1,635 @@
+package org.example.myjavafx;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * ChatLogStore keeps the chat and complaint log as a directory of segment files, so that a
+ * customer's history can be found without reading the whole log.
+ * <p>
+ * Records are appended to the active segment, which is closed and replaced once it reaches a size
+ * or an age limit. Every segment keeps a sparse index: for each block of about {@link #BLOCK_BYTES}
+ * it records the block's offset and the range of timestamps in it, and for each user the blocks
+ * that user appears in. A query reads only the blocks its user and time range can be in.
+ * Closed segments can be gzip-compressed in the background; the index still tells which of them
+ * can contain a match, so only those are decompressed.
+ * <p>
+ * A segment is a text file of lines {@code epochMillis TAB user TAB message}, with tab, newline
+ * and backslash escaped. Its index is written next to it when it is closed and rebuilt from the
+ * segment if missing (e.g. after a crash).
+ */
+public class ChatLogStore implements Closeable {
+
+    /** Index granularity: one index entry per block of roughly this many bytes. */
+    public static final int BLOCK_BYTES = 4096;
+
+    private static final String LOG_SUFFIX = ".log";
+    private static final String GZIP_SUFFIX = ".log.gz";
+    private static final String INDEX_SUFFIX = ".idx";
+    // "CHI2": user names are an int length and UTF-8 bytes. Older indexes are rebuilt when the log is opened.
+    private static final int INDEX_MAGIC = 0x43484932;
+    // How long close waits for a segment still being compressed
+    private static final long CLOSE_WAIT_SECONDS = 30;
+
+    private final Path directory;
+    private final long maxSegmentBytes;
+    private final long maxSegmentMillis;
+    private final boolean compressClosed;
+
+    // All segments by sequence number; the last one is the active segment
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment active;
+    private FileChannel activeChannel;
+    // Records appended to the active segment but not written to its file yet
+    private final StringBuilder pending = new StringBuilder(64 * 1024);
+    // UTF-8 size of pending, so a record's offset is known before its bytes are written
+    private long pendingBytes;
+
+    private final ExecutorService compressor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "chat-log-compressor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * A single logged message.
+     */
+    public static final class Record {
+        private final long timestamp;
+        private final String user;
+        private final String message;
+
+        Record(long timestamp, String user, String message) {
+            this.timestamp = timestamp;
+            this.user = user;
+            this.message = message;
+        }
+
+        /**
+         * @return When the message was logged, in epoch millis.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return The user the message is about, or an empty string for server messages.
+         */
+        public String getUser() {
+            return user;
+        }
+
+        /**
+         * @return The logged message.
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + LocalDateTime.ofInstant(java.time.Instant.ofEpochMilli(timestamp), ZoneId.systemDefault())
+                    + "] " + message;
+        }
+    }
+
+    /**
+     * Opens (or creates) a store, loading the indexes of existing segments, and starts a new active segment.
+     *
+     * @param directory        The directory holding the segments.
+     * @param maxSegmentBytes  Size at which the active segment is closed.
+     * @param maxSegmentMillis Age at which the active segment is closed.
+     * @param compressClosed   Whether closed segments are gzip-compressed.
+     * @throws IOException If the directory or a segment cannot be read.
+     */
+    public ChatLogStore(Path directory, long maxSegmentBytes, long maxSegmentMillis, boolean compressClosed) throws IOException {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentMillis = maxSegmentMillis;
+        this.compressClosed = compressClosed;
+        Files.createDirectories(directory);
+        loadSegments();
+        long nextSequence = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        openActive(nextSequence);
+    }
+
+    // --- Writing (one writer thread) ---
+
+    /**
+     * Adds a record to the active segment. It reaches the file on the next {@link #flush()}.
+     *
+     * @param timestamp When the message was logged, in epoch millis.
+     * @param user      The user the message is about, or null.
+     * @param message   The message.
+     * @throws IOException If rotating to a new segment fails.
+     */
+    public synchronized void append(long timestamp, String user, String message) throws IOException {
+        if (active.size + pendingBytes >= maxSegmentBytes
+                || (active.recordCount > 0 && timestamp - active.firstTimestamp >= maxSegmentMillis)) {
+            rotate();
+        }
+        String safeUser = user == null ? "" : user;
+        long offset = active.size + pendingBytes;
+        active.noteRecord(offset, timestamp, safeUser);
+
+        int before = pending.length();
+        pending.append(timestamp).append('\t');
+        escape(pending, safeUser);
+        pending.append('\t');
+        escape(pending, message);
+        pending.append('\n');
+        pendingBytes += utf8Length(pending, before);
+    }
+
+    /**
+     * Writes appended records to the active segment file.
+     *
+     * @throws IOException If the write fails.
+     */
+    public synchronized void flush() throws IOException {
+        if (pending.length() == 0) return;
+        ByteBuffer bytes = ByteBuffer.wrap(pending.toString().getBytes(StandardCharsets.UTF_8));
+        pending.setLength(0);
+        pendingBytes = 0;
+        while (bytes.hasRemaining()) {
+            active.size += activeChannel.write(bytes);
+        }
+    }
+
+    /**
+     * Forces the active segment to disk.
+     *
+     * @throws IOException If the sync fails.
+     */
+    public synchronized void force() throws IOException {
+        activeChannel.force(false);
+    }
+
+    /**
+     * Flushes, closes the active segment (writing its index) and waits up to {@link #CLOSE_WAIT_SECONDS}
+     * for pending compression. A segment whose compression does not finish in time stays uncompressed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            flush();
+            closeActive();
+            compressor.shutdown();
+        }
+        // Outside the lock: a finishing compression takes it to swap in the compressed file
+        try {
+            if (!compressor.awaitTermination(CLOSE_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                System.err.println("Chat log compression did not finish before close");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // --- Querying ---
+
+    /**
+     * Returns the records of one user, or of everyone, logged between two times.
+     * Only segments and blocks whose index can contain a match are read.
+     *
+     * @param user The user, or null for all users.
+     * @param from Start of the range, inclusive, in epoch millis.
+     * @param to   End of the range, inclusive, in epoch millis.
+     * @return The matching records, oldest segment first.
+     * @throws IOException If a segment cannot be read.
+     */
+    public List<Record> query(String user, long from, long to) throws IOException {
+        List<Segment> candidates = new ArrayList<>();
+        synchronized (this) {
+            for (Segment segment : segments.values()) {
+                if (segment.recordCount == 0 || segment.lastTimestamp < from || segment.firstTimestamp > to) continue;
+                if (user != null && !segment.userBlocks.containsKey(user)) continue;
+                candidates.add(segment);
+            }
+        }
+
+        List<Record> results = new ArrayList<>();
+        for (Segment segment : candidates) {
+            long[][] ranges;
+            Path file;
+            boolean compressed;
+            synchronized (this) {
+                // Only what has reached the file can be read: size does not count pending records
+                ranges = segment.blockRanges(user, from, to);
+                file = segment.file;
+                compressed = segment.compressed;
+            }
+            if (ranges.length == 0) continue;
+            if (compressed) {
+                readCompressed(file, ranges, user, from, to, results);
+            } else {
+                readBlocks(file, ranges, user, from, to, results);
+            }
+        }
+        return results;
+    }
+
+    private void readBlocks(Path file, long[][] ranges, String user, long from, long to, List<Record> results) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (long[] range : ranges) {
+                ByteBuffer block = ByteBuffer.allocate((int) (range[1] - range[0]));
+                while (block.hasRemaining()) {
+                    if (channel.read(block, range[0] + block.position()) < 0) break;
+                }
+                collect(new String(block.array(), 0, block.position(), StandardCharsets.UTF_8), user, from, to, results);
+            }
+        }
+    }
+
+    private void readCompressed(Path file, long[][] ranges, String user, long from, long to, List<Record> results) throws IOException {
+        try (InputStream in = new GZIPInputStream(new BufferedInputStream(Files.newInputStream(file)), 64 * 1024)) {
+            long position = 0;
+            for (long[] range : ranges) {
+                while (position < range[0]) {
+                    long skipped = in.skip(range[0] - position);
+                    if (skipped <= 0) return;
+                    position += skipped;
+                }
+                byte[] block = in.readNBytes((int) (range[1] - range[0]));
+                position += block.length;
+                collect(new String(block, StandardCharsets.UTF_8), user, from, to, results);
+            }
+        }
+    }
+
+    private static void collect(String block, String user, long from, long to, List<Record> results) {
+        int start = 0;
+        while (start < block.length()) {
+            int end = block.indexOf('\n', start);
+            if (end < 0) end = block.length();
+            Record record = parse(block, start, end);
+            start = end + 1;
+            if (record == null) continue;
+            if (record.timestamp < from || record.timestamp > to) continue;
+            if (user != null && !user.equals(record.user)) continue;
+            results.add(record);
+        }
+    }
+
+    // --- Segments ---
+
+    private void rotate() throws IOException {
+        flush();
+        long nextSequence = active.sequence + 1;
+        closeActive();
+        openActive(nextSequence);
+    }
+
+    private void openActive(long sequence) throws IOException {
+        active = new Segment(sequence, directory.resolve(segmentName(sequence) + LOG_SUFFIX));
+        activeChannel = FileChannel.open(active.file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        active.size = activeChannel.size();
+        segments.put(sequence, active);
+    }
+
+    private void closeActive() throws IOException {
+        activeChannel.force(false);
+        activeChannel.close();
+        Segment closed = active;
+        if (closed.recordCount == 0) {
+            segments.remove(closed.sequence);
+            Files.deleteIfExists(closed.file);
+            return;
+        }
+        closed.writeIndex(indexFile(closed.sequence));
+        if (compressClosed) compressor.execute(() -> compress(closed));
+    }
+
+    private void compress(Segment segment) {
+        Path gzip = directory.resolve(segmentName(segment.sequence) + GZIP_SUFFIX);
+        Path temp = directory.resolve(segmentName(segment.sequence) + GZIP_SUFFIX + ".tmp");
+        try {
+            try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)), 64 * 1024)) {
+                Files.copy(segment.file, out);
+            }
+            Files.move(temp, gzip, StandardCopyOption.ATOMIC_MOVE);
+            Path plain;
+            synchronized (this) {
+                plain = segment.file;
+                segment.file = gzip;
+                segment.compressed = true;
+            }
+            Files.deleteIfExists(plain);
+        } catch (IOException e) {
+            System.err.println("Error compressing chat log segment " + segment.file + ": " + e.getMessage());
+        }
+    }
+
+    private void loadSegments() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    Files.deleteIfExists(file); // Compression that did not finish
+                    continue;
+                }
+                boolean compressed = name.endsWith(GZIP_SUFFIX);
+                if (!compressed && !name.endsWith(LOG_SUFFIX)) continue;
+                long sequence = Long.parseLong(name.substring("segment-".length(), name.indexOf('.')));
+                Segment existing = segments.get(sequence);
+                if (existing != null) {
+                    // Both forms exist: compression finished but the plain file was not deleted yet
+                    Path plain = compressed ? existing.file : file;
+                    if (!compressed) continue;
+                    Files.deleteIfExists(plain);
+                }
+                Segment segment = new Segment(sequence, file);
+                segment.compressed = compressed;
+                segments.put(sequence, segment);
+            }
+        }
+        for (Map.Entry<Long, Segment> entry : segments.entrySet()) {
+            Segment segment = entry.getValue();
+            Path index = indexFile(segment.sequence);
+            if (Files.exists(index)) {
+                try {
+                    segment.readIndex(index);
+                    continue;
+                } catch (IOException e) {
+                    // Unreadable or in an older format: start again from an empty segment and rebuild it
+                    System.err.println("Rebuilding chat log index " + index + ": " + e.getMessage());
+                    segment = new Segment(segment.sequence, segment.file);
+                    segment.compressed = entry.getValue().compressed;
+                    entry.setValue(segment);
+                }
+            }
+            segment.rebuildIndex();
+            segment.writeIndex(index);
+        }
+    }
+
+    private Path indexFile(long sequence) {
+        return directory.resolve(segmentName(sequence) + INDEX_SUFFIX);
+    }
+
+    private static String segmentName(long sequence) {
+        return String.format("segment-%012d", sequence);
+    }
+
+    /**
+     * One segment file and its sparse index.
+     */
+    private static final class Segment {
+        private final long sequence;
+        private Path file;
+        private boolean compressed;
+        private long size;
+        private long recordCount;
+        private long firstTimestamp = Long.MAX_VALUE;
+        private long lastTimestamp = Long.MIN_VALUE;
+
+        // Per block: start offset and the range of timestamps in it
+        private int blockCount;
+        private long[] blockOffsets = new long[16];
+        private long[] blockMin = new long[16];
+        private long[] blockMax = new long[16];
+        // User -> ascending numbers of the blocks they appear in
+        private final Map<String, int[]> userBlocks = new HashMap<>();
+        private final Map<String, Integer> userBlockCounts = new HashMap<>();
+
+        private Segment(long sequence, Path file) {
+            this.sequence = sequence;
+            this.file = file;
+        }
+
+        private void noteRecord(long offset, long timestamp, String user) {
+            if (blockCount == 0 || offset - blockOffsets[blockCount - 1] >= BLOCK_BYTES) {
+                if (blockCount == blockOffsets.length) {
+                    blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+                    blockMin = Arrays.copyOf(blockMin, blockCount * 2);
+                    blockMax = Arrays.copyOf(blockMax, blockCount * 2);
+                }
+                blockOffsets[blockCount] = offset;
+                blockMin[blockCount] = timestamp;
+                blockMax[blockCount] = timestamp;
+                blockCount++;
+            }
+            int block = blockCount - 1;
+            blockMin[block] = Math.min(blockMin[block], timestamp);
+            blockMax[block] = Math.max(blockMax[block], timestamp);
+            firstTimestamp = Math.min(firstTimestamp, timestamp);
+            lastTimestamp = Math.max(lastTimestamp, timestamp);
+            recordCount++;
+
+            int[] blocks = userBlocks.get(user);
+            int count = userBlockCounts.getOrDefault(user, 0);
+            if (blocks == null) {
+                blocks = new int[4];
+                userBlocks.put(user, blocks);
+            }
+            if (count > 0 && blocks[count - 1] == block) return;
+            if (count == blocks.length) {
+                blocks = Arrays.copyOf(blocks, count * 2);
+                userBlocks.put(user, blocks);
+            }
+            blocks[count] = block;
+            userBlockCounts.put(user, count + 1);
+        }
+
+        // [start, end) byte ranges of the written blocks that can hold matches, adjacent blocks merged
+        private long[][] blockRanges(String user, long from, long to) {
+            List<long[]> ranges = new ArrayList<>();
+            int[] blocks = user == null ? null : userBlocks.get(user);
+            int count = user == null ? blockCount : userBlockCounts.getOrDefault(user, 0);
+            for (int i = 0; i < count; i++) {
+                int block = blocks == null ? i : blocks[i];
+                if (blockMax[block] < from || blockMin[block] > to) continue;
+                long start = blockOffsets[block];
+                long end = block + 1 < blockCount ? Math.min(blockOffsets[block + 1], size) : size;
+                if (start >= end) continue;
+                long[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+                if (last != null && last[1] == start) {
+                    last[1] = end;
+                } else {
+                    ranges.add(new long[]{start, end});
+                }
+            }
+            return ranges.toArray(new long[0][]);
+        }
+
+        private void writeIndex(Path index) throws IOException {
+            Path temp = index.resolveSibling(index.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(INDEX_MAGIC);
+                out.writeLong(size);
+                out.writeLong(recordCount);
+                out.writeLong(firstTimestamp);
+                out.writeLong(lastTimestamp);
+                out.writeInt(blockCount);
+                for (int i = 0; i < blockCount; i++) {
+                    out.writeLong(blockOffsets[i]);
+                    out.writeLong(blockMin[i]);
+                    out.writeLong(blockMax[i]);
+                }
+                out.writeInt(userBlocks.size());
+                for (Map.Entry<String, int[]> entry : userBlocks.entrySet()) {
+                    int count = userBlockCounts.get(entry.getKey());
+                    // Not writeUTF: it fails for names over 65,535 UTF-8 bytes
+                    byte[] user = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(user.length);
+                    out.write(user);
+                    out.writeInt(count);
+                    for (int i = 0; i < count; i++) {
+                        out.writeInt(entry.getValue()[i]);
+                    }
+                }
+            }
+            Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private void readIndex(Path index) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)))) {
+                if (in.readInt() != INDEX_MAGIC) throw new IOException("Not a chat log index: " + index);
+                size = in.readLong();
+                recordCount = in.readLong();
+                firstTimestamp = in.readLong();
+                lastTimestamp = in.readLong();
+                blockCount = in.readInt();
+                blockOffsets = new long[Math.max(16, blockCount)];
+                blockMin = new long[blockOffsets.length];
+                blockMax = new long[blockOffsets.length];
+                for (int i = 0; i < blockCount; i++) {
+                    blockOffsets[i] = in.readLong();
+                    blockMin[i] = in.readLong();
+                    blockMax[i] = in.readLong();
+                }
+                int users = in.readInt();
+                for (int u = 0; u < users; u++) {
+                    int length = in.readInt();
+                    if (length < 0 || length > in.available()) throw new IOException("Corrupt chat log index: " + index);
+                    byte[] name = new byte[length];
+                    in.readFully(name);
+                    String user = new String(name, StandardCharsets.UTF_8);
+                    int count = in.readInt();
+                    int[] blocks = new int[Math.max(4, count)];
+                    for (int i = 0; i < count; i++) {
+                        blocks[i] = in.readInt();
+                    }
+                    userBlocks.put(user, blocks);
+                    userBlockCounts.put(user, count);
+                }
+            }
+        }
+
+        // Scans the segment to recreate a missing index
+        private void rebuildIndex() throws IOException {
+            InputStream raw = new BufferedInputStream(Files.newInputStream(file), 64 * 1024);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    compressed ? new GZIPInputStream(raw) : raw, StandardCharsets.UTF_8))) {
+                long offset = 0;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Record record = parse(line, 0, line.length());
+                    if (record != null) noteRecord(offset, record.timestamp, record.user);
+                    offset += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                }
+                size = offset;
+            }
+        }
+    }
+
+    // --- Record encoding ---
+
+    private static Record parse(String text, int start, int end) {
+        int firstTab = text.indexOf('\t', start);
+        if (firstTab < 0 || firstTab >= end) return null;
+        int secondTab = text.indexOf('\t', firstTab + 1);
+        if (secondTab < 0 || secondTab >= end) return null;
+        try {
+            long timestamp = Long.parseLong(text, start, firstTab, 10);
+            return new Record(timestamp, unescape(text, firstTab + 1, secondTab), unescape(text, secondTab + 1, end));
+        } catch (NumberFormatException e) {
+            return null; // A torn line at the end of a crashed segment
+        }
+    }
+
+    private static void escape(StringBuilder out, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+
+    private static String unescape(String text, int start, int end) {
+        if (text.indexOf('\\', start) < 0 || text.indexOf('\\', start) >= end) return text.substring(start, end);
+        StringBuilder out = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < end) {
+                char next = text.charAt(++i);
+                out.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    private static long utf8Length(CharSequence text, int from) {
+        long bytes = 0;
+        for (int i = from; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,195 @@
+package org.example.myjavafx;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ChatLogWriter appends chat log lines from a single background thread, so that broadcasting
+ * a message never waits for the disk.
+ * Any number of client handler threads enqueue lines on a lock-free queue. The writer thread drains
+ * the queue in batches, appends each batch to the {@link ChatLogStore} with one write, and
+ * forces it to disk according to the chosen {@link FsyncPolicy}.
+ */
+public final class ChatLogWriter implements AutoCloseable {
+
+    /**
+     * When written log lines are forced to disk.
+     */
+    public enum FsyncPolicy {
+        /** Leave it to the operating system. */
+        NEVER,
+        /** After every written batch: nothing that was written is lost on a crash. */
+        EVERY_BATCH,
+        /** At most once per interval: up to one interval of log may be lost on a crash. */
+        INTERVAL
+    }
+
+    // Maximum number of lines written with one call
+    private static final int MAX_BATCH = 4096;
+    // Past this many waiting lines new ones are dropped (and counted) rather than growing without limit
+    private static final int MAX_QUEUED = 100_000;
+
+    private final ChatLogStore store;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writerThread;
+    private volatile boolean sleeping;
+    private volatile boolean closed;
+
+    // Only touched by the writer thread
+    private boolean unsynced;
+    private long lastSync = System.nanoTime();
+
+    /**
+     * Starts the writer thread for a log store.
+     *
+     * @param store               The store the lines are appended to; closed with this writer.
+     * @param fsyncPolicy         When written lines are forced to disk.
+     * @param fsyncIntervalMillis The interval for {@link FsyncPolicy#INTERVAL}.
+     */
+    public ChatLogWriter(ChatLogStore store, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis) {
+        this.store = store;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis);
+        this.writerThread = new Thread(this::drainLoop, "chat-log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queues one line for the log and returns immediately.
+     *
+     * @param message The message to log; the timestamp is added by the writer.
+     */
+    public void log(String message) {
+        log(null, message);
+    }
+
+    /**
+     * Queues one line about a user for the log and returns immediately.
+     * The line is indexed under the user, so it can be found with {@link ChatLogStore#query}.
+     *
+     * @param user    The user the message is from or about, or null for server messages.
+     * @param message The message to log; the timestamp is added by the writer.
+     */
+    public void log(String user, String message) {
+        if (closed) return;
+        if (queued.incrementAndGet() > MAX_QUEUED) {
+            queued.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        queue.add(new Entry(System.currentTimeMillis(), user, message));
+        if (sleeping) LockSupport.unpark(writerThread);
+    }
+
+    /**
+     * @return The number of lines waiting to be written.
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * @return The number of lines dropped because the queue was full.
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes out everything queued so far, forces it to disk and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            store.close();
+        } catch (IOException e) {
+            System.err.println("Error closing chat log: " + e.getMessage());
+        }
+    }
+
+    private void drainLoop() {
+        while (true) {
+            boolean wrote = writeBatch();
+            if (!wrote) {
+                if (closed) break;
+                sleeping = true;
+                // Re-check after announcing the sleep, so a line queued just before is not left waiting
+                if (queue.isEmpty() && !closed) {
+                    boolean syncPending = fsyncPolicy == FsyncPolicy.INTERVAL && unsynced;
+                    LockSupport.parkNanos(this, syncPending ? fsyncIntervalNanos : TimeUnit.SECONDS.toNanos(1));
+                }
+                sleeping = false;
+            }
+            syncIfDue();
+        }
+        forceToDisk();
+    }
+
+    // Returns false if there was nothing to write
+    private boolean writeBatch() {
+        Entry entry;
+        int count = 0;
+        try {
+            while (count < MAX_BATCH && (entry = queue.poll()) != null) {
+                store.append(entry.time, entry.user, entry.message);
+                count++;
+            }
+            if (count == 0) return false;
+            store.flush();
+            unsynced = true;
+            if (fsyncPolicy == FsyncPolicy.EVERY_BATCH) forceToDisk();
+        } catch (IOException e) {
+            System.err.println("Error writing to chat log: " + e.getMessage());
+        } finally {
+            queued.addAndGet(-count);
+        }
+        return true;
+    }
+
+    private void syncIfDue() {
+        if (fsyncPolicy == FsyncPolicy.INTERVAL && unsynced && System.nanoTime() - lastSync >= fsyncIntervalNanos) {
+            forceToDisk();
+        }
+    }
+
+    private void forceToDisk() {
+        if (!unsynced) return;
+        try {
+            store.force();
+        } catch (IOException e) {
+            System.err.println("Error syncing chat log: " + e.getMessage());
+        }
+        unsynced = false;
+        lastSync = System.nanoTime();
+    }
+
+    private static final class Entry {
+        private final long time;
+        private final String user;
+        private final String message;
+
+        private Entry(long time, String user, String message) {
+            this.time = time;
+            this.user = user;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package org.example.myjavafx;
+
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * ChatMetrics holds the counters and gauges of one {@link ChatServer}, which {@link MetricsEndpoint}
+ * exports over HTTP and JMX.
+ * <p>
+ * Recording is a {@link LongAdder} increment or a {@link LatencyHistogram} bucket increment, cheap enough
+ * for the message path. Rates are averaged over the last ten seconds from once-a-second samples of the
+ * counters, taken on a small daemon thread; gauges read the server's components when they are asked for.
+ */
+public class ChatMetrics implements ChatMetricsMXBean, AutoCloseable {
+
+    // Seconds over which the message rates are averaged
+    private static final int RATE_WINDOW_SECONDS = 10;
+
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LatencyHistogram fanOutNanos = new LatencyHistogram();
+    private final ScheduledExecutorService sampler;
+
+    // What the gauges read; set by bind once the server has opened them
+    private volatile AdmissionController admission;
+    private volatile ChatLogWriter chatLog;
+    private volatile LongSupplier slowClientDrops = () -> 0;
+
+    // Ring of per-second samples of the two counters; only touched under this object's lock
+    private final long[] inSamples = new long[RATE_WINDOW_SECONDS + 1];
+    private final long[] outSamples = new long[RATE_WINDOW_SECONDS + 1];
+    private int samples;
+
+    /**
+     * Creates the metrics and starts sampling the message rates.
+     */
+    public ChatMetrics() {
+        sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chat-metrics-sampler");
+            t.setDaemon(true);
+            return t;
+        });
+        sampler.scheduleAtFixedRate(this::sample, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Connects the gauges to the server's components.
+     *
+     * @param admission       The server's admission controller.
+     * @param chatLog         The server's log writer.
+     * @param slowClientDrops Counts the messages not delivered to slow clients.
+     */
+    public void bind(AdmissionController admission, ChatLogWriter chatLog, LongSupplier slowClientDrops) {
+        this.admission = admission;
+        this.chatLog = chatLog;
+        this.slowClientDrops = slowClientDrops;
+    }
+
+    /**
+     * Counts a client message accepted for broadcast.
+     */
+    public void onMessageIn() {
+        messagesIn.increment();
+    }
+
+    /**
+     * Counts one broadcast queued to its recipients and how long that took.
+     *
+     * @param recipients The number of clients it was queued for.
+     * @param nanos      The time taken, in nanoseconds.
+     */
+    public void onFanOut(int recipients, long nanos) {
+        messagesOut.add(recipients);
+        fanOutNanos.record(nanos);
+    }
+
+    private synchronized void sample() {
+        int slot = samples % inSamples.length;
+        inSamples[slot] = messagesIn.sum();
+        outSamples[slot] = messagesOut.sum();
+        samples++;
+    }
+
+    private synchronized double rate(long[] ring) {
+        if (samples < 2) return 0;
+        int newest = (samples - 1) % ring.length;
+        int span = Math.min(samples - 1, RATE_WINDOW_SECONDS);
+        int oldest = (samples - 1 - span) % ring.length;
+        return (double) (ring[newest] - ring[oldest]) / span;
+    }
+
+    @Override
+    public int getConnectedClients() {
+        AdmissionController current = admission;
+        return current == null ? 0 : current.getConnectionCount();
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    @Override
+    public double getMessagesInPerSecond() {
+        return rate(inSamples);
+    }
+
+    @Override
+    public double getMessagesOutPerSecond() {
+        return rate(outSamples);
+    }
+
+    @Override
+    public long getFanOutP50Micros() {
+        return fanOutNanos.getValueAtPercentile(50) / 1000;
+    }
+
+    @Override
+    public long getFanOutP99Micros() {
+        return fanOutNanos.getValueAtPercentile(99) / 1000;
+    }
+
+    @Override
+    public long getFanOutP999Micros() {
+        return fanOutNanos.getValueAtPercentile(99.9) / 1000;
+    }
+
+    @Override
+    public long getFanOutMaxMicros() {
+        return fanOutNanos.getMax() / 1000;
+    }
+
+    @Override
+    public int getLogQueueDepth() {
+        ChatLogWriter current = chatLog;
+        return current == null ? 0 : current.getQueueDepth();
+    }
+
+    @Override
+    public long getLogDroppedCount() {
+        ChatLogWriter current = chatLog;
+        return current == null ? 0 : current.getDroppedCount();
+    }
+
+    @Override
+    public long getThrottledCount() {
+        AdmissionController current = admission;
+        return current == null ? 0 : current.getThrottledCount();
+    }
+
+    @Override
+    public long getRefusedCount() {
+        AdmissionController current = admission;
+        return current == null ? 0 : current.getRefusedCount();
+    }
+
+    @Override
+    public long getSlowClientDropCount() {
+        return slowClientDrops.getAsLong();
+    }
+
+    /**
+     * Renders the metrics in the Prometheus text exposition format.
+     *
+     * @return The metrics as text.
+     */
+    public String render() {
+        StringBuilder out = new StringBuilder(2048);
+        gauge(out, "chat_connected_clients", "Clients connected now", getConnectedClients());
+        counter(out, "chat_messages_in_total", "Client messages accepted", getMessagesIn());
+        counter(out, "chat_messages_out_total", "Messages queued to clients", getMessagesOut());
+        gauge(out, "chat_messages_in_per_second", "Client messages accepted per second, last 10 s", getMessagesInPerSecond());
+        gauge(out, "chat_messages_out_per_second", "Messages queued to clients per second, last 10 s", getMessagesOutPerSecond());
+        out.append("# HELP chat_fanout_seconds Time to queue one broadcast to all recipients\n")
+                .append("# TYPE chat_fanout_seconds summary\n");
+        for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            out.append("chat_fanout_seconds{quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(fanOutNanos.getValueAtPercentile(quantile * 100))).append('\n');
+        }
+        out.append("chat_fanout_seconds_sum ").append(seconds(fanOutNanos.getSum())).append('\n')
+                .append("chat_fanout_seconds_count ").append(fanOutNanos.getCount()).append('\n');
+        gauge(out, "chat_fanout_max_seconds", "Slowest broadcast fan-out", seconds(fanOutNanos.getMax()));
+        gauge(out, "chat_log_queue_depth", "Log lines waiting to be written", getLogQueueDepth());
+        counter(out, "chat_log_dropped_total", "Log lines dropped because the queue was full", getLogDroppedCount());
+        counter(out, "chat_throttled_total", "Client messages dropped for exceeding the client rate", getThrottledCount());
+        counter(out, "chat_refused_total", "Clients refused because the server was full", getRefusedCount());
+        counter(out, "chat_slow_client_dropped_total", "Messages not delivered to clients that read too slowly", getSlowClientDropCount());
+        return out.toString();
+    }
+
+    /**
+     * Stops the rate sampler.
+     */
+    @Override
+    public void close() {
+        sampler.shutdownNow();
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, Object value) {
+        metric(out, name, help, "gauge", value);
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        metric(out, name, help, "counter", value);
+    }
+
+    private static void metric(StringBuilder out, String name, String help, String type, Object value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(' ').append(type).append('\n')
+                .append(name).append(' ').append(value).append('\n');
+    }
+}
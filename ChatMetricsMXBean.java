@@ -0,0 +1,49 @@
+package org.example.myjavafx;
+
+/**
+ * ChatMetricsMXBean is what {@link ChatMetrics} shows over JMX, e.g. in JConsole.
+ */
+public interface ChatMetricsMXBean {
+
+    /** @return Clients connected now. */
+    int getConnectedClients();
+
+    /** @return Client messages accepted since start. */
+    long getMessagesIn();
+
+    /** @return Messages queued to clients since start. */
+    long getMessagesOut();
+
+    /** @return Client messages accepted per second, over the last 10 seconds. */
+    double getMessagesInPerSecond();
+
+    /** @return Messages queued to clients per second, over the last 10 seconds. */
+    double getMessagesOutPerSecond();
+
+    /** @return Median time to queue one broadcast to every client, in microseconds. */
+    long getFanOutP50Micros();
+
+    /** @return 99th percentile broadcast fan-out time, in microseconds. */
+    long getFanOutP99Micros();
+
+    /** @return 99.9th percentile broadcast fan-out time, in microseconds. */
+    long getFanOutP999Micros();
+
+    /** @return Slowest broadcast fan-out, in microseconds. */
+    long getFanOutMaxMicros();
+
+    /** @return Log lines waiting to be written. */
+    int getLogQueueDepth();
+
+    /** @return Log lines dropped because the log queue was full. */
+    long getLogDroppedCount();
+
+    /** @return Client messages dropped for exceeding the per-client rate. */
+    long getThrottledCount();
+
+    /** @return Clients refused because the server was full. */
+    long getRefusedCount();
+
+    /** @return Messages not delivered to clients that read too slowly. */
+    long getSlowClientDropCount();
+}
@@ -3,71 +3,387 @@ package org.example.myjavafx;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.time.LocalDateTime; // For timestamping messages
-import java.time.format.DateTimeFormatter; // For formatting timestamps
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * ChatServer class handles incoming client connections and broadcasts messages.
  * It uses a thread pool to manage multiple client handlers concurrently.
- * This version also logs all chat messages to a text file.
+ * This version also logs all chat messages to a {@link ChatLogStore}, where a user's messages
+ * between two times can be looked up with {@link #messagesFrom}.
+ * <p>
+ * Start with {@code --virtual-threads} to run each client handler on its own virtual thread
+ * instead of the fixed pool, which removes the 10-client ceiling while keeping the blocking code.
+ * {@code --slow-client=drop|disconnect|coalesce} chooses what happens to a client that cannot keep
+ * up with the broadcasts (see {@link ClientOutbox.SlowConsumerPolicy}); the default is coalesce.
+ * {@code --log-compress} gzips chat log segments once they are closed.
+ * A client that connects is first sent the recent chat history, by default the last 50 messages
+ * of the last 60 minutes; {@code --history=N} and {@code --history-minutes=T} change the limits.
+ * <p>
+ * Load is limited by an {@link AdmissionController}: {@code --max-connections=N} clients at once
+ * (default 10000), {@code --max-inbound=B} bytes per second from all clients together, beyond which
+ * reading pauses (default 8 MB/s), and {@code --client-rate=M} messages per second per client, beyond
+ * which messages are dropped and the client is told it is throttled (default 20).
+ * <p>
+ * Several servers can run as one cluster behind a load balancer, sharing broadcasts over a
+ * {@link MessageBus}: {@code --cluster=multicast:<group>:<port>[:<interface>]} across processes, or
+ * {@code --cluster=local:<name>} between servers in the same JVM. Each node then needs its own
+ * {@code --port=P} (default 12345) and {@code --log-dir=D} (default chat_log) if they share a machine,
+ * and can be named with {@code --node=NAME}.
+ * <p>
+ * {@link ChatMetrics} are published over JMX, and with {@code --metrics-port=P} also in Prometheus
+ * format on {@code http://127.0.0.1:P/metrics}. Console output is chosen with
+ * {@code --console=error|warn|info|debug} (default info); lines printed per message are sampled,
+ * one in {@code --console-sample=N} (default 100).
  */
 public class ChatServer {
 
-    // Port number for the server to listen on
-    private static final int PORT = 12345;
+    // Port number for the server to listen on, unless --port is given
+    private static final int DEFAULT_PORT = 12345;
+    // Directory holding the chat log segments, unless --log-dir is given
+    private static final String DEFAULT_LOG_DIR = "chat_log";
+    // A log segment is closed when it reaches this size or age
+    private static final long LOG_SEGMENT_BYTES = 64L * 1024 * 1024;
+    private static final long LOG_SEGMENT_MILLIS = 24L * 60 * 60 * 1000;
+    // Size of each region of the mapped history ring
+    private static final int HISTORY_REGION_BYTES = 4 * 1024 * 1024;
+
+    private final String[] args;
+    private final int port;
+    private final Path logDir;
+    private final boolean virtualThreads;
     // List to keep track of all connected client handlers.
-    // SynchronizedList is used to ensure thread-safe access from multiple ClientHandler threads.
-    private static List<ClientHandler> clients = Collections.synchronizedList(new ArrayList<>());
+    // Copy-on-write: every broadcast iterates it without locking or copying; only joins and leaves copy it.
+    private final List<ClientHandler> clients = new CopyOnWriteArrayList<>();
+    // What a client's outbox does when the client falls too far behind; set by --slow-client
+    private ClientOutbox.SlowConsumerPolicy slowConsumerPolicy = ClientOutbox.SlowConsumerPolicy.COALESCE;
+    // Connection, inbound byte and per-client message limits
+    private final AdmissionController admission;
     // Thread pool to manage client handler threads efficiently.
-    private static ExecutorService pool = Executors.newFixedThreadPool(10); // Max 10 concurrent clients
+    // A fixed pool of 10 platform threads, or one virtual thread per client.
+    private final ExecutorService pool;
+
+    // Indexed chat log, and the background writer that appends to it; opened in run
+    private volatile ChatLogStore logStore;
+    private volatile ChatLogWriter chatLog;
+    // Recent broadcasts, replayed to each client that connects; opened in run
+    private volatile ChatHistory history;
+
+    // Cluster mode: the bus to the other nodes (null when running alone), this node's id in message ids,
+    // the sequence numbers of the messages it publishes, and which messages from other nodes were delivered
+    private final MessageBus bus;
+    private final String nodeId;
+    private final AtomicLong publishedSequence = new AtomicLong();
+    private final MessageDeduplicator deduplicator = new MessageDeduplicator();
 
-    // File path for the chat log
-    private static final String LOG_FILE = "chat_log.txt";
-    // Date formatter for timestamps in the log file
-    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // Counters and gauges of this server, and where they are published (from run); 0 is JMX only
+    private final ChatMetrics metrics = new ChatMetrics();
+    private final int metricsPort;
+    // Messages dropped by the outboxes of clients that have since left
+    private final LongAdder departedClientDrops = new LongAdder();
+
+    private volatile ServerSocket serverSocket;
+    private volatile boolean running;
 
     public static void main(String[] args) {
-        ServerSocket serverSocket = null;
         try {
-            // Create a server socket bound to the specified port
-            serverSocket = new ServerSocket(PORT);
-            System.out.println("Chat Server started on port " + PORT);
+            new ChatServer(args).run();
+        } catch (IOException e) {
+            System.err.println("Server error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Configures a server from command-line style options (see the class comment).
+     *
+     * @param args The options.
+     * @throws IOException If the cluster bus cannot be opened.
+     */
+    public ChatServer(String[] args) throws IOException {
+        this.args = args;
+        int listenPort = DEFAULT_PORT;
+        String logDirectory = DEFAULT_LOG_DIR;
+        String nodeName = null;
+        String cluster = null;
+        int maxConnections = 10_000;
+        long maxInboundBytes = 8L * 1024 * 1024;
+        double clientRate = 20;
+        int metricsHttpPort = 0;
+        String consoleLevel = "info";
+        int consoleSample = 100;
+        for (String arg : args) {
+            if (arg.startsWith("--slow-client=")) {
+                slowConsumerPolicy = ClientOutbox.SlowConsumerPolicy.valueOf(
+                        arg.substring("--slow-client=".length()).toUpperCase(Locale.ROOT));
+            } else if (arg.startsWith("--max-connections=")) {
+                maxConnections = Integer.parseInt(arg.substring("--max-connections=".length()));
+            } else if (arg.startsWith("--max-inbound=")) {
+                maxInboundBytes = Long.parseLong(arg.substring("--max-inbound=".length()));
+            } else if (arg.startsWith("--client-rate=")) {
+                clientRate = Double.parseDouble(arg.substring("--client-rate=".length()));
+            } else if (arg.startsWith("--port=")) {
+                listenPort = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--log-dir=")) {
+                logDirectory = arg.substring("--log-dir=".length());
+            } else if (arg.startsWith("--node=")) {
+                nodeName = arg.substring("--node=".length());
+            } else if (arg.startsWith("--cluster=")) {
+                cluster = arg.substring("--cluster=".length());
+            } else if (arg.startsWith("--metrics-port=")) {
+                metricsHttpPort = Integer.parseInt(arg.substring("--metrics-port=".length()));
+            } else if (arg.startsWith("--console=")) {
+                consoleLevel = arg.substring("--console=".length());
+            } else if (arg.startsWith("--console-sample=")) {
+                consoleSample = Integer.parseInt(arg.substring("--console-sample=".length()));
+            }
+        }
+        this.port = listenPort;
+        this.metricsPort = metricsHttpPort;
+        ChatConsole.configure(consoleLevel, consoleSample);
+        this.logDir = Path.of(logDirectory);
+        this.virtualThreads = Arrays.asList(args).contains("--virtual-threads");
+        this.admission = new AdmissionController(maxConnections, maxInboundBytes, clientRate);
+        this.pool = virtualThreads
+                ? Executors.newVirtualThreadPerTaskExecutor() // No client cap; an idle client costs a few KB of heap
+                : Executors.newFixedThreadPool(10); // Max 10 concurrent clients
+        // Unique per run, so a restarted node's sequence numbers are not mistaken for duplicates
+        this.nodeId = (nodeName != null ? nodeName : InetAddress.getLocalHost().getHostName() + ":" + port)
+                + "@" + Long.toString(System.currentTimeMillis(), 36);
+        this.bus = cluster == null ? null : openBus(cluster, nodeId);
+        if (bus != null) bus.subscribe(this::onClusterMessage);
+    }
+
+    /**
+     * Opens the cluster bus named by the {@code --cluster} option.
+     *
+     * @param spec   {@code local:<name>} or {@code multicast:<group>:<port>[:<interface>]}.
+     * @param nodeId This node's id.
+     * @return The bus.
+     * @throws IOException If the bus cannot be opened.
+     */
+    private static MessageBus openBus(String spec, String nodeId) throws IOException {
+        String[] parts = spec.split(":");
+        if (parts[0].equals("local") && parts.length == 2) {
+            return new InProcessMessageBus(parts[1]);
+        }
+        if (parts[0].equals("multicast") && (parts.length == 3 || parts.length == 4)) {
+            return new MulticastMessageBus(InetAddress.getByName(parts[1]), Integer.parseInt(parts[2]),
+                    parts.length == 4 ? parts[3] : null, nodeId);
+        }
+        throw new IllegalArgumentException("Unknown cluster bus: " + spec);
+    }
+
+    /**
+     * Accepts clients until {@link #stop()} is called.
+     *
+     * @throws IOException If the log, the history or the metrics endpoint cannot be opened.
+     */
+    public void run() throws IOException {
+        chatLog = openLog(args);
+        history = openHistory(args);
+        metrics.bind(admission, chatLog, this::getSlowClientDropCount);
+        MetricsEndpoint metricsEndpoint = new MetricsEndpoint(metrics, metricsPort,
+                "org.example.myjavafx:type=ChatServer,port=" + port);
+        running = true;
+        try {
+            // Create a server socket bound to the specified port.
+            // Opened as a channel so that client sockets have channels the history can be transferred to.
+            serverSocket = ServerSocketChannel.open().bind(new InetSocketAddress(port), 1024).socket();
+            ChatConsole.log(ChatConsole.Level.INFO, "Chat Server started on port " + port
+                    + (virtualThreads ? " (virtual threads)" : "") + (bus != null ? " as cluster node " + nodeId : "")
+                    + (metricsPort > 0 ? ", metrics at http://127.0.0.1:" + metricsPort + "/metrics" : ""));
             logMessage("--- Chat Server Started ---"); // Log server start
 
             // Continuously listen for new client connections.
-            while (true) {
+            while (running) {
                 // Accept a new client connection. This call blocks until a client connects.
                 Socket clientSocket = serverSocket.accept();
-                System.out.println("New client connected: " + clientSocket.getInetAddress().getHostAddress());
+                if (!admission.tryAdmit()) {
+                    refuse(clientSocket);
+                    continue;
+                }
+                ChatConsole.log(ChatConsole.Level.DEBUG, "New client connected: " + clientSocket.getInetAddress().getHostAddress());
                 logMessage("New client connected: " + clientSocket.getInetAddress().getHostAddress()); // Log connection
 
                 // Create a new ClientHandler for the connected client.
-                ClientHandler clientHandler = new ClientHandler(clientSocket);
+                ClientHandler clientHandler = new ClientHandler(this, clientSocket, slowConsumerPolicy, admission);
                 // Add the client handler to the list of active clients.
                 clients.add(clientHandler);
                 // Submit the client handler to the thread pool for execution.
                 pool.execute(clientHandler);
             }
         } catch (IOException e) {
-            System.err.println("Server error: " + e.getMessage());
-            logMessage("Server error: " + e.getMessage()); // Log server error
+            if (running) {
+                System.err.println("Server error: " + e.getMessage());
+                logMessage("Server error: " + e.getMessage()); // Log server error
+            }
         } finally {
             // Ensure the server socket is closed when the server shuts down
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                try {
-                    serverSocket.close();
-                    System.out.println("Server socket closed.");
-                    logMessage("--- Chat Server Stopped ---"); // Log server stop
-                } catch (IOException e) {
-                    System.err.println("Error closing server socket: " + e.getMessage());
-                    logMessage("Error closing server socket: " + e.getMessage());
-                }
-            }
+            stop();
+            logMessage("--- Chat Server Stopped ---"); // Log server stop
             // Shut down the thread pool gracefully
             pool.shutdown();
+            metricsEndpoint.close();
+            metrics.close();
+            try {
+                if (bus != null) bus.close();
+            } catch (IOException e) {
+                System.err.println("Error leaving the chat cluster: " + e.getMessage());
+            }
+            // Write out whatever is still queued for the log
+            if (chatLog != null) chatLog.close();
+            try {
+                if (history != null) history.close();
+            } catch (IOException e) {
+                System.err.println("Error closing chat history: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops accepting clients; {@link #run()} then shuts the server down.
+     */
+    public void stop() {
+        running = false;
+        ServerSocket socket = serverSocket;
+        if (socket != null && !socket.isClosed()) {
+            try {
+                socket.close();
+                ChatConsole.log(ChatConsole.Level.INFO, "Server socket closed.");
+            } catch (IOException e) {
+                System.err.println("Error closing server socket: " + e.getMessage());
+                logMessage("Error closing server socket: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Tells a client that the server is full and disconnects it.
+     * A freshly accepted socket's send buffer takes the one line without blocking.
+     *
+     * @param clientSocket The refused client's socket.
+     */
+    private static void refuse(Socket clientSocket) {
+        try (clientSocket) {
+            clientSocket.getOutputStream().write((AdmissionController.SERVER_FULL_NOTICE + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.err.println("Error refusing client: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Opens the chat log store and its writer. The {@code --log-fsync=never|batch|<millis>} option chooses when
+     * log lines are forced to disk: never, after every written batch, or at most every given
+     * number of milliseconds (the default, 1000).
+     *
+     * @param args The command-line arguments.
+     * @return The started log writer.
+     * @throws IOException If the log directory cannot be opened.
+     */
+    private ChatLogWriter openLog(String[] args) throws IOException {
+        boolean compress = Arrays.asList(args).contains("--log-compress");
+        ChatLogWriter.FsyncPolicy policy = ChatLogWriter.FsyncPolicy.INTERVAL;
+        long intervalMillis = 1000;
+        for (String arg : args) {
+            if (!arg.startsWith("--log-fsync=")) continue;
+            String fsync = arg.substring("--log-fsync=".length());
+            if (fsync.equals("never")) {
+                policy = ChatLogWriter.FsyncPolicy.NEVER;
+            } else if (fsync.equals("batch")) {
+                policy = ChatLogWriter.FsyncPolicy.EVERY_BATCH;
+            } else {
+                intervalMillis = Long.parseLong(fsync);
+            }
+        }
+        logStore = new ChatLogStore(logDir, LOG_SEGMENT_BYTES, LOG_SEGMENT_MILLIS, compress);
+        return new ChatLogWriter(logStore, policy, intervalMillis);
+    }
+
+    /**
+     * Opens the history ring and fills it with the recent broadcasts from the chat log, so that
+     * history survives a restart. Server messages, which are logged but not broadcast, are skipped.
+     *
+     * @param args The command-line arguments.
+     * @return The history.
+     * @throws IOException If the history file cannot be mapped or the log cannot be read.
+     */
+    private ChatHistory openHistory(String[] args) throws IOException {
+        int maxMessages = 50;
+        long maxMinutes = 60;
+        for (String arg : args) {
+            if (arg.startsWith("--history=")) {
+                maxMessages = Integer.parseInt(arg.substring("--history=".length()));
+            } else if (arg.startsWith("--history-minutes=")) {
+                maxMinutes = Long.parseLong(arg.substring("--history-minutes=".length()));
+            }
+        }
+        long maxAgeMillis = maxMinutes * 60_000;
+        ChatHistory recent = new ChatHistory(logDir.resolve("history.ring"), HISTORY_REGION_BYTES,
+                Math.max(1, maxMessages), maxAgeMillis);
+
+        long now = System.currentTimeMillis();
+        List<ChatLogStore.Record> logged = new ArrayList<>();
+        for (ChatLogStore.Record record : logStore.query(null, now - maxAgeMillis, now)) {
+            if (!record.getUser().isEmpty()) logged.add(record);
+        }
+        for (ChatLogStore.Record record : logged.subList(Math.max(0, logged.size() - maxMessages), logged.size())) {
+            recent.add(record.getMessage(), record.getTimestamp());
+        }
+        return recent;
+    }
+
+    /**
+     * Returns the recent chat history replayed to new clients.
+     *
+     * @return The history.
+     */
+    ChatHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Looks up what a user said (including their joins and leaves) between two times,
+     * e.g. to review a customer's complaint history. In a cluster every node logs every broadcast,
+     * so any node can answer.
+     *
+     * @param user The username, or null for everyone.
+     * @param from Start of the range, inclusive, in epoch millis.
+     * @param to   End of the range, inclusive, in epoch millis.
+     * @return The matching log records, oldest first; empty if the log is not open.
+     * @throws IOException If a log segment cannot be read.
+     */
+    public List<ChatLogStore.Record> messagesFrom(String user, long from, long to) throws IOException {
+        ChatLogStore store = logStore;
+        return store == null ? Collections.emptyList() : store.query(user, from, to);
+    }
+
+    /**
+     * Returns this server's metrics.
+     *
+     * @return The metrics.
+     */
+    public ChatMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Counts the messages dropped by slow clients' outboxes, including those of clients that have left.
+     *
+     * @return The number of messages not delivered to slow clients.
+     */
+    private long getSlowClientDropCount() {
+        long count = departedClientDrops.sum();
+        for (ClientHandler client : clients) {
+            count += client.getDroppedCount();
         }
+        return count;
     }
 
     /**
@@ -77,73 +393,162 @@ public class ChatServer {
      *
      * @param message The message to be broadcasted and logged.
      */
-    public static void broadcastMessage(String message) {
-        // Log the message first
-        logMessage(message);
+    public void broadcastMessage(String message) {
+        broadcastMessage(null, message);
+    }
 
-        // Iterate over a copy of the clients list to avoid ConcurrentModificationException
-        for (ClientHandler client : new ArrayList<>(clients)) {
-            if (client != null) {
-                client.sendMessage(message);
+    /**
+     * Broadcasts a message to all connected clients, and to the other nodes of the cluster,
+     * and logs it under the user it is from or about.
+     *
+     * @param user     The user the message is from or about, or null for server messages.
+     * @param composed The message to be broadcasted and logged; cut if it does not fit in a cluster datagram.
+     */
+    public void broadcastMessage(String user, String composed) {
+        // Cut to what one cluster datagram carries, so every node delivers the same message, standalone or not
+        String message = ChatFrame.fitPayload(composed,
+                MulticastMessageBus.MAX_DATAGRAM_BYTES - ClusterMessage.overheadBytes(nodeId, user));
+        long timestamp = System.currentTimeMillis();
+        deliver(user, message, timestamp);
+        if (bus != null) {
+            try {
+                bus.publish(new ClusterMessage(nodeId, publishedSequence.incrementAndGet(), timestamp, user, message));
+            } catch (IOException e) {
+                System.err.println("Error publishing to the chat cluster: " + e.getMessage());
             }
         }
     }
 
+    /**
+     * Delivers a broadcast from another node to this node's clients, once per message id.
+     *
+     * @param message The message from the bus.
+     */
+    private void onClusterMessage(ClusterMessage message) {
+        if (history == null || !deduplicator.firstTime(message)) return;
+        deliver(message.getUser(), message.getText(), message.getTimestamp());
+    }
+
+    /**
+     * Logs a broadcast and queues it for every client of this node.
+     *
+     * @param user      The user the message is from or about, or null.
+     * @param message   The message.
+     * @param timestamp When it was sent, in epoch millis.
+     */
+    private void deliver(String user, String composed, long timestamp) {
+        // The name prefix can push a maximum-size message over the frame limit
+        String message = ChatFrame.fitPayload(composed);
+        // Log the message first
+        logMessage(user, message);
+
+        // Encoded once per wire format and kept for history replay; every recipient's outbox shares the same bytes
+        ChatHistory.Message encoded = history.add(message, timestamp);
+        // Only queues the message: each client's own writer thread sends it, so a slow client delays nobody else
+        long start = System.nanoTime();
+        int recipients = 0;
+        for (ClientHandler client : clients) {
+            if (client.sendEncoded(encoded)) recipients++;
+        }
+        metrics.onFanOut(recipients, System.nanoTime() - start);
+    }
+
     /**
      * Removes a disconnected client handler from the list.
      *
      * @param clientHandler The client handler to be removed.
      */
-    public static void removeClient(ClientHandler clientHandler) {
+    public void removeClient(ClientHandler clientHandler) {
         clients.remove(clientHandler);
+        departedClientDrops.add(clientHandler.getDroppedCount());
+        admission.release();
         String disconnectMessage = "Client disconnected: " + clientHandler.getClientSocket().getInetAddress().getHostAddress();
-        System.out.println(disconnectMessage);
+        ChatConsole.log(ChatConsole.Level.DEBUG, disconnectMessage);
         logMessage(disconnectMessage); // Log client disconnection
     }
 
     /**
-     * Logs a message to the chat_log.txt file with a timestamp.
-     * This method is synchronized to ensure thread-safe writing to the file,
-     * preventing data corruption from concurrent write attempts.
+     * Logs a message to the chat log with a timestamp.
+     * The line is only queued here; the {@link ChatLogWriter} thread writes it, so callers on the
+     * broadcast path never wait for disk I/O or for each other.
      *
      * @param message The message to log.
      */
-    private static void logMessage(String message) {
-        // Synchronize on the class lock to ensure only one thread writes to the file at a time
-        synchronized (ChatServer.class) {
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(LOG_FILE, true))) { // true for append mode
-                String timestamp = LocalDateTime.now().format(formatter);
-                writer.write("[" + timestamp + "] " + message);
-                writer.newLine(); // Add a new line after each message
-            } catch (IOException e) {
-                System.err.println("Error writing to chat log file: " + e.getMessage());
-                // Note: We don't log this error to the file itself to avoid an infinite loop
-            }
-        }
+    private void logMessage(String message) {
+        logMessage(null, message);
+    }
+
+    /**
+     * Logs a message about a user, indexed under that user.
+     *
+     * @param user    The user the message is from or about, or null for server messages.
+     * @param message The message to log.
+     */
+    private void logMessage(String user, String message) {
+        ChatLogWriter log = chatLog;
+        if (log != null) log.log(user, message);
     }
 }
 
 /**
  * ClientHandler class manages communication with a single client.
  * It runs in a separate thread, reading messages from the client and sending messages to it.
+ * A client speaks either newline-delimited text or, if it opens with {@link ChatFrame#MAGIC},
+ * the binary {@link ChatFrame} protocol, in which its frames are acknowledged and heartbeats answered.
  */
 class ClientHandler implements Runnable {
+    // Read buffer size in chars; readLine still handles longer lines
+    private static final int STREAM_BUFFER_CHARS = 512;
+    // A text line longer than this is a broken or hostile client, as is an oversized frame
+    private static final int MAX_LINE_CHARS = ChatFrame.MAX_PAYLOAD_BYTES;
+    // Names go into every broadcast's cluster message and log index entry
+    private static final int MAX_NAME_CHARS = 64;
+
+    // Messages a client may have waiting before the slow-consumer policy applies
+    private static final int OUTBOX_CAPACITY = 1024;
+
+    // Wire format, known once the client's first bytes have arrived
+    private static final int UNDECIDED = 0;
+    private static final int TEXT = 1;
+    private static final int FRAMED = 2;
+
+    private ChatServer server; // The server this client is connected to
     private Socket clientSocket;
-    private BufferedReader in; // To read messages from the client
-    private PrintWriter out;    // To send messages to the client
+    private BufferedInputStream input; // Raw input, until the wire format is known
+    private BufferedReader in; // To read messages from a text client
+    private DataInputStream frames; // To read frames from a binary client
+    private ClientOutbox outbox; // Messages waiting to be sent to the client
     private String clientName;  // Name of the client
+    private volatile int mode = UNDECIDED;
+    private long pendingAck; // Id of the frame being handled, acknowledged once it has been broadcast
+    private long replayedThrough; // Id of the last broadcast in the history this client was sent
+    private AdmissionController admission; // Server-wide limits
+    private RateLimiter messageLimiter; // This client's message rate
+    private boolean throttled; // Told the text client it is throttled, and it has not slowed down since
 
     /**
      * Constructor for ClientHandler.
      *
-     * @param socket The client socket connected to this handler.
+     * @param server             The server the client connected to.
+     * @param socket             The client socket connected to this handler.
+     * @param slowConsumerPolicy What to do when this client cannot keep up with the broadcasts.
+     * @param admission          The server-wide limits; the client has already been admitted.
      */
-    public ClientHandler(Socket socket) {
+    public ClientHandler(ChatServer server, Socket socket, ClientOutbox.SlowConsumerPolicy slowConsumerPolicy,
+                         AdmissionController admission) {
+        this.server = server;
         this.clientSocket = socket;
+        this.admission = admission;
+        this.messageLimiter = admission.newClientLimiter();
         try {
             // Initialize input and output streams for the socket
-            this.in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            this.out = new PrintWriter(clientSocket.getOutputStream(), true); // true for auto-flush
+            // Small buffers: under virtual threads thousands of mostly idle clients each hold a pair of these,
+            // and the default 8K-char buffers would dominate memory
+            this.input = new BufferedInputStream(clientSocket.getInputStream(), STREAM_BUFFER_CHARS);
+            this.outbox = new ClientOutbox(
+                    new BufferedOutputStream(clientSocket.getOutputStream(), STREAM_BUFFER_CHARS * 2),
+                    clientSocket.getChannel(), clientSocket, OUTBOX_CAPACITY, slowConsumerPolicy,
+                    clientSocket.getInetAddress().getHostAddress() + ":" + clientSocket.getPort());
         } catch (IOException e) {
             System.err.println("Error setting up client handler streams: " + e.getMessage());
             closeResources();
@@ -153,32 +558,47 @@ class ClientHandler implements Runnable {
     @Override
     public void run() {
         try {
+            if (ChatFrame.readMagic(input)) {
+                outbox.send(ChatFrame.MAGIC.clone()); // Confirms the binary protocol, ahead of any broadcast
+                frames = new DataInputStream(input);
+                startSending(FRAMED);
+            } else {
+                in = new BufferedReader(new InputStreamReader(input), STREAM_BUFFER_CHARS);
+                startSending(TEXT);
+            }
+
             // The first message from the client is expected to be their name
-            clientName = in.readLine();
-            if (clientName == null) {
+            String name = nextMessage();
+            if (name == null) {
                 // If the client disconnects immediately, handle it
-                System.out.println("Client disconnected before sending name.");
+                ChatConsole.log(ChatConsole.Level.DEBUG, "Client disconnected before sending name.");
                 return;
             }
+            if (name.length() > MAX_NAME_CHARS) throw new IOException("Name too long");
+            clientName = name;
             String joinMessage = clientName + " has joined the chat.";
-            System.out.println(joinMessage);
-            ChatServer.broadcastMessage(joinMessage); // Broadcast and log join message
+            ChatConsole.log(ChatConsole.Level.DEBUG, joinMessage);
+            server.broadcastMessage(clientName, joinMessage); // Broadcast and log join message
+            acknowledge();
 
             String message;
             // Continuously read messages from the client
-            while ((message = in.readLine()) != null) {
+            while ((message = nextMessage()) != null) {
+                if (!admitMessage()) continue;
+                server.getMetrics().onMessageIn();
                 String fullMessage = clientName + ": " + message;
-                System.out.println(fullMessage); // Log to server console
-                ChatServer.broadcastMessage(fullMessage); // Broadcast and log message
+                ChatConsole.sampled(ChatConsole.Level.INFO, () -> fullMessage); // Log to server console
+                server.broadcastMessage(clientName, fullMessage); // Broadcast and log message
+                acknowledge();
             }
         } catch (IOException e) {
             // Handle client disconnection or other I/O errors
-            System.out.println(clientName + " disconnected: " + e.getMessage());
+            ChatConsole.log(ChatConsole.Level.DEBUG, clientName + " disconnected: " + e.getMessage());
         } finally {
             // Clean up resources when the client disconnects
             String leaveMessage = clientName + " has left the chat.";
-            ChatServer.broadcastMessage(leaveMessage); // Broadcast and log leave message
-            ChatServer.removeClient(this);
+            server.broadcastMessage(clientName, leaveMessage); // Broadcast and log leave message
+            server.removeClient(this);
             closeResources();
         }
     }
@@ -186,14 +606,166 @@ class ClientHandler implements Runnable {
     /**
      * Sends a message to this specific client.
      *
-     * @param message The message to send.
+     * @param text The message to send.
+     */
+    public void sendMessage(String text) {
+        String message = ChatFrame.fitPayload(text);
+        sendEncoded((message + "\n").getBytes(StandardCharsets.UTF_8),
+                ChatFrame.encode(ChatFrame.MESSAGE, 0, message));
+    }
+
+    /**
+     * Queues a broadcast for this client, unless the client already received it with the history.
+     *
+     * @param message The encoded broadcast.
+     * @return Whether the broadcast was queued.
+     */
+    public boolean sendEncoded(ChatHistory.Message message) {
+        // Mode first: replayedThrough is only meaningful once it is published by the mode change
+        if (mode == UNDECIDED || message.getId() <= replayedThrough) return false;
+        sendEncoded(message.getLine(), message.getFrame());
+        return true;
+    }
+
+    /**
+     * Queues an already encoded message for this client, in whichever format the client speaks.
+     * A client that has not sent anything yet receives nothing.
+     *
+     * @param line  The message as a text line, including the line terminator.
+     * @param frame The message as a {@link ChatFrame}.
      */
-    public void sendMessage(String message) {
-        if (out != null) {
-            out.println(message);
+    public void sendEncoded(byte[] line, byte[] frame) {
+        int currentMode = mode;
+        if (outbox != null && currentMode != UNDECIDED) {
+            outbox.send(currentMode == FRAMED ? frame : line);
         }
     }
 
+    /**
+     * Queues the recent history for the client and starts delivering broadcasts to it.
+     * While the history lock is held no broadcast can enter the history, so each broadcast is
+     * either in the replay or queued after it; those in both are skipped by {@link #sendEncoded}.
+     *
+     * @param newMode The client's wire format.
+     */
+    private void startSending(int newMode) {
+        outbox.setFramed(newMode == FRAMED);
+        ChatHistory history = server.getHistory();
+        synchronized (history) {
+            ChatHistory.Replay replay = history.replay(newMode == FRAMED);
+            replayedThrough = replay.getLastId();
+            outbox.send(replay);
+            mode = newMode;
+        }
+    }
+
+    /**
+     * Reads one text line, like {@link BufferedReader#readLine()} but refusing lines over {@link #MAX_LINE_CHARS}.
+     *
+     * @return The line without its terminator, or null at the end of the stream.
+     * @throws IOException If reading fails or the line is too long.
+     */
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') break;
+            if (line.length() == MAX_LINE_CHARS) throw new IOException("Line too long");
+            line.append((char) c);
+        }
+        if (c == -1 && line.length() == 0) return null;
+        int end = line.length();
+        if (end > 0 && line.charAt(end - 1) == '\r') line.setLength(end - 1);
+        return line.toString();
+    }
+
+    /**
+     * Reads the client's next name or chat message, answering heartbeats on the way.
+     *
+     * @return The message, or null when the client has disconnected.
+     * @throws IOException If reading fails.
+     */
+    private String nextMessage() throws IOException {
+        if (mode == TEXT) {
+            String line = readLine();
+            if (line != null) pauseForInbound(line.length() + 1);
+            return line;
+        }
+        while (true) {
+            ChatFrame frame = ChatFrame.read(frames);
+            if (frame == null) return null;
+            pauseForInbound(4 + ChatFrame.HEADER_BYTES + frame.getPayload().length());
+            switch (frame.getType()) {
+                case ChatFrame.HELLO:
+                case ChatFrame.MESSAGE:
+                    pendingAck = frame.getId();
+                    return frame.getPayload();
+                case ChatFrame.HEARTBEAT:
+                    outbox.send(ChatFrame.encode(ChatFrame.HEARTBEAT, frame.getId(), null));
+                    break;
+                default:
+                    break; // ACKs of what we sent need no answer
+            }
+        }
+    }
+
+    /**
+     * Stops reading from this client while all clients together are over the inbound byte limit.
+     * The unread bytes fill the socket buffers, which slows the sender down.
+     *
+     * @param bytes The number of bytes just read.
+     * @throws IOException If interrupted while paused.
+     */
+    private void pauseForInbound(int bytes) throws IOException {
+        long pause = admission.onBytesRead(bytes);
+        if (pause <= 0) return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(pause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled");
+        }
+    }
+
+    /**
+     * Checks the message just read against the client's rate. A message over the rate is dropped:
+     * a binary client is told which frame was dropped, a text client is told once until it slows down.
+     *
+     * @return True if the message may be broadcast.
+     */
+    private boolean admitMessage() {
+        if (messageLimiter.tryAcquire(1)) {
+            throttled = false;
+            return true;
+        }
+        admission.onThrottled();
+        if (mode == FRAMED) {
+            outbox.send(ChatFrame.encode(ChatFrame.THROTTLE, pendingAck, AdmissionController.THROTTLED_NOTICE));
+            pendingAck = 0;
+        } else if (!throttled) {
+            outbox.send((AdmissionController.THROTTLED_NOTICE + "\n").getBytes(StandardCharsets.UTF_8));
+            throttled = true;
+        }
+        return false;
+    }
+
+    /**
+     * Acknowledges the frame just handled, for a binary client.
+     */
+    private void acknowledge() {
+        if (pendingAck != 0) {
+            outbox.send(ChatFrame.encode(ChatFrame.ACK, pendingAck, null));
+            pendingAck = 0;
+        }
+    }
+
+    /**
+     * @return The number of messages this client's outbox dropped because the client read too slowly.
+     */
+    public long getDroppedCount() {
+        return outbox == null ? 0 : outbox.getDroppedCount();
+    }
+
     /**
      * Returns the client's socket.
      *
@@ -208,8 +780,8 @@ class ClientHandler implements Runnable {
      */
     private void closeResources() {
         try {
-            if (in != null) in.close();
-            if (out != null) out.close();
+            if (input != null) input.close();
+            if (outbox != null) outbox.close();
             if (clientSocket != null && !clientSocket.isClosed()) clientSocket.close();
         } catch (IOException e) {
             System.err.println("Error closing client handler resources: " + e.getMessage());
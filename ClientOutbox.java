@@ -0,0 +1,234 @@
+package org.example.myjavafx;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ClientOutbox holds the messages waiting to be sent to one client and writes them out on
+ * the client's own writer thread, so a client that reads slowly only ever delays itself.
+ * <p>
+ * Messages are queued in a bounded lock-free ring buffer (many broadcasting threads, one writer).
+ * They arrive already encoded, so one broadcast is encoded once and the same bytes are shared by
+ * every recipient. What happens when the ring is full is decided by the {@link SlowConsumerPolicy}.
+ * A {@link Transfer} can be queued in the same order as messages, for bulk data (such as the chat
+ * history) that is sent straight from a file to the socket.
+ */
+public final class ClientOutbox {
+
+    /**
+     * What to do with a message for a client whose outbox is full.
+     */
+    public enum SlowConsumerPolicy {
+        /** Drop the new message. */
+        DROP,
+        /** Disconnect the client. */
+        DISCONNECT,
+        /** Drop the new message, and tell the client how many it missed once it catches up. */
+        COALESCE
+    }
+
+    /**
+     * Bulk data written directly to the client's socket channel by the writer thread.
+     */
+    public interface Transfer {
+        /**
+         * Writes the data.
+         *
+         * @param target The client's channel; anything queued before has already been flushed to it.
+         * @throws IOException If writing fails.
+         */
+        void transferTo(WritableByteChannel target) throws IOException;
+    }
+
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+    private final Closeable connection;
+    private final SlowConsumerPolicy policy;
+
+    // Bounded multi-producer / single-consumer ring: each slot's sequence number says whether it
+    // is free for the producer claiming position p (sequence == p) or filled for the consumer (p + 1)
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<Object> slots; // byte[] or Transfer
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // Only touched by the writer thread
+
+    private final AtomicLong missed = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writerThread;
+    // The client's wire format, for the notices the outbox writes itself
+    private volatile boolean framed;
+    private volatile boolean sleeping;
+    private volatile boolean closed;
+
+    /**
+     * Creates the outbox and starts its writer thread.
+     *
+     * @param out        The client's socket output stream.
+     * @param channel    The client's socket channel, for {@link Transfer}s; null to write them through {@code out}.
+     * @param connection Closed when the client must be disconnected.
+     * @param capacity   The maximum number of queued messages; rounded up to a power of two.
+     * @param policy     What to do when the outbox is full.
+     * @param name       Used to name the writer thread.
+     */
+    public ClientOutbox(OutputStream out, WritableByteChannel channel, Closeable connection, int capacity,
+                        SlowConsumerPolicy policy, String name) {
+        this.out = out;
+        this.channel = channel != null ? channel : Channels.newChannel(out);
+        this.connection = connection;
+        this.policy = policy;
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = this.capacity - 1;
+        this.slots = new AtomicReferenceArray<>(this.capacity);
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+        // A virtual thread: one per client costs a few KB, and blocking on a slow socket costs nothing
+        this.writerThread = Thread.ofVirtual().name("chat-out-" + name).start(this::drainLoop);
+    }
+
+    /**
+     * Queues an encoded message for this client. Never blocks.
+     *
+     * @param message The encoded message, including its line terminator. Must not be modified afterwards.
+     */
+    public void send(byte[] message) {
+        enqueue(message);
+    }
+
+    /**
+     * Queues bulk data for this client, to be sent after everything queued before it. Never blocks.
+     *
+     * @param transfer The data.
+     */
+    public void send(Transfer transfer) {
+        enqueue(transfer);
+    }
+
+    private void enqueue(Object message) {
+        if (closed) return;
+        if (!offer(message)) {
+            dropped.increment();
+            switch (policy) {
+                case DISCONNECT:
+                    System.err.println("Disconnecting slow client " + writerThread.getName());
+                    disconnect();
+                    return;
+                case COALESCE:
+                    missed.incrementAndGet();
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (sleeping) LockSupport.unpark(writerThread);
+    }
+
+    /**
+     * Sets the client's wire format, once it is known. Notices written by the outbox itself, such as
+     * the count of skipped messages, are sent as {@link ChatFrame} MESSAGE frames to a framed client.
+     *
+     * @param framed Whether the client speaks the {@link ChatFrame} protocol rather than text.
+     */
+    public void setFramed(boolean framed) {
+        this.framed = framed;
+    }
+
+    /**
+     * @return The number of messages this client did not receive because its outbox was full.
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Stops the writer thread. Messages still queued are discarded.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writerThread);
+    }
+
+    private boolean offer(Object message) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.set(index, message);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false; // Full: the slot still holds a message from one lap ago
+            } else {
+                position = tail.get(); // Another producer claimed it first
+            }
+        }
+    }
+
+    private Object poll() {
+        int index = (int) (head & mask);
+        if (sequences.get(index) != head + 1) return null;
+        Object message = slots.get(index);
+        slots.set(index, null);
+        sequences.set(index, head + capacity);
+        head++;
+        return message;
+    }
+
+    private void drainLoop() {
+        try {
+            while (!closed) {
+                Object message = poll();
+                if (message == null) {
+                    // Caught up: push out what was written, then wait for more
+                    out.flush();
+                    sleeping = true;
+                    if (!closed && sequences.get((int) (head & mask)) != head + 1) {
+                        LockSupport.park(this);
+                    }
+                    sleeping = false;
+                    continue;
+                }
+                long skipped = missed.getAndSet(0);
+                if (skipped > 0) {
+                    String notice = "*** " + skipped + " messages skipped: you are reading too slowly ***";
+                    out.write(framed ? ChatFrame.encode(ChatFrame.MESSAGE, 0, notice)
+                            : (notice + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+                if (message instanceof Transfer) {
+                    out.flush(); // The transfer bypasses the buffered stream
+                    ((Transfer) message).transferTo(channel);
+                } else {
+                    out.write((byte[]) message);
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) disconnect();
+        }
+    }
+
+    private void disconnect() {
+        closed = true;
+        LockSupport.unpark(writerThread);
+        try {
+            connection.close();
+        } catch (IOException e) {
+            System.err.println("Error closing slow client connection: " + e.getMessage());
+        }
+    }
+}
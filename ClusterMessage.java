@@ -0,0 +1,159 @@
+package org.example.myjavafx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ClusterMessage is a broadcast passed between the nodes of a chat cluster over a {@link MessageBus}.
+ * <p>
+ * Its id is the node it started on plus that node's sequence number, which lets receivers drop
+ * copies of a message they already delivered (see {@link MessageDeduplicator}).
+ */
+public final class ClusterMessage {
+
+    // "CHC2": strings are an int length and UTF-8 bytes, so names and messages of any length encode
+    private static final int MAGIC = 0x43484332;
+
+    private final String origin;
+    private final long sequence;
+    private final long timestamp;
+    private final String user;
+    private final String text;
+
+    /**
+     * Creates a message.
+     *
+     * @param origin    The id of the node the message was sent on.
+     * @param sequence  That node's number for the message, increasing by one per message.
+     * @param timestamp When it was sent, in epoch millis.
+     * @param user      The user the message is from or about, or null.
+     * @param text      The message.
+     */
+    public ClusterMessage(String origin, long sequence, long timestamp, String user, String text) {
+        this.origin = origin;
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.user = user;
+        this.text = text;
+    }
+
+    /**
+     * @return The id of the node the message was sent on.
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    /**
+     * @return The origin node's number for the message.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return The message id, unique across the cluster.
+     */
+    public String getId() {
+        return origin + "#" + sequence;
+    }
+
+    /**
+     * @return When the message was sent, in epoch millis.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return The user the message is from or about, or null.
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * @return The message.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the encoded size of a message without its text, e.g. to know how much text fits in a datagram.
+     *
+     * @param origin The id of the node the message is sent on.
+     * @param user   The user the message is from or about, or null.
+     * @return The encoded size of everything but the text.
+     */
+    public static int overheadBytes(String origin, String user) {
+        int bytes = 4 + 4 + utf8Length(origin) + 8 + 8 + 1 + 4;
+        if (user != null) bytes += 4 + utf8Length(user);
+        return bytes;
+    }
+
+    /**
+     * Encodes the message for a network bus.
+
+     *
+     * @return The encoded message.
+     */
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + text.length());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            writeString(out, origin);
+            out.writeLong(sequence);
+            out.writeLong(timestamp);
+            out.writeBoolean(user != null);
+            if (user != null) writeString(out, user);
+            writeString(out, text);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Not thrown by an in-memory stream
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a message encoded by {@link #encode()}.
+     *
+     * @param bytes  The buffer.
+     * @param offset Where the message starts.
+     * @param length The encoded length.
+     * @return The message.
+     * @throws IOException If the bytes are not a cluster message.
+     */
+    public static ClusterMessage decode(byte[] bytes, int offset, int length) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, offset, length));
+        if (in.readInt() != MAGIC) throw new IOException("Not a chat cluster message");
+        String origin = readString(in);
+        long sequence = in.readLong();
+        long timestamp = in.readLong();
+        String user = in.readBoolean() ? readString(in) : null;
+        String text = readString(in);
+        return new ClusterMessage(origin, sequence, timestamp, user, text);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        // Checked against what is left, so a corrupt length cannot allocate a huge array
+        if (length < 0 || length > in.available()) throw new IOException("Bad chat cluster string length " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int utf8Length(String value) {
+        return value.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -0,0 +1,52 @@
+package org.example.myjavafx;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * InProcessMessageBus connects chat servers running in the same JVM: every bus created with the
+ * same group name is a node of one cluster. Messages are handed to the other nodes' listeners
+ * directly on the publishing thread. Useful for tests and for running several nodes in one process.
+ */
+public final class InProcessMessageBus implements MessageBus {
+
+    private static final Map<String, List<InProcessMessageBus>> GROUPS = new ConcurrentHashMap<>();
+
+    private final String group;
+    private volatile Consumer<ClusterMessage> listener;
+
+    /**
+     * Joins a group.
+     *
+     * @param group The group name.
+     */
+    public InProcessMessageBus(String group) {
+        this.group = group;
+        GROUPS.computeIfAbsent(group, name -> new CopyOnWriteArrayList<>()).add(this);
+    }
+
+    @Override
+    public void subscribe(Consumer<ClusterMessage> listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void publish(ClusterMessage message) {
+        for (InProcessMessageBus node : GROUPS.getOrDefault(group, List.of())) {
+            Consumer<ClusterMessage> receiver = node.listener;
+            if (node != this && receiver != null) receiver.accept(message);
+        }
+    }
+
+    /**
+     * Leaves the group.
+     */
+    @Override
+    public void close() {
+        List<InProcessMessageBus> nodes = GROUPS.get(group);
+        if (nodes != null) nodes.remove(this);
+    }
+}
@@ -0,0 +1,94 @@
+package org.example.myjavafx;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram is a lock-free histogram in the style of HdrHistogram.
+ * <p>
+ * Buckets are log-linear: values below 128 have a bucket each, and above that every power of two is
+ * split into 64 buckets, so a recorded value is off by at most 1/64 (about 1.6%) whether it is 50 ns
+ * or 50 s, in a fixed array of 3712 counts. Recording is one atomic increment; percentiles are read
+ * from a pass over the counts, which may race slightly with concurrent recording.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int HALF_SUB_BUCKETS = 1 << (SUB_BUCKET_BITS - 1);
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * HALF_SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one value.
+     *
+     * @param value The value, e.g. a latency in nanoseconds; negative values count as 0.
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(indexOf(value));
+        total.increment();
+        sum.add(value);
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * @return The number of recorded values.
+     */
+    public long getCount() {
+        return total.sum();
+    }
+
+    /**
+     * @return The largest recorded value.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return The sum of the recorded values.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Returns the value below which a percentage of the recorded values fall, to bucket precision.
+     *
+     * @param percentile The percentage, 0 to 100.
+     * @return The value, or 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = total.sum();
+        if (count == 0) return 0;
+        long wanted = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= wanted) return Math.min(highestValueIn(i), max.get());
+        }
+        return max.get();
+    }
+
+    private static int indexOf(long value) {
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        if (shift <= 0) return (int) value;
+        // The top SUB_BUCKET_BITS bits of the value, in [64, 128), offset by 64 buckets per power of two
+        return (shift << (SUB_BUCKET_BITS - 1)) + (int) (value >>> shift);
+    }
+
+    private static long highestValueIn(int index) {
+        if (index < 2 * HALF_SUB_BUCKETS) return index;
+        int shift = (index >> (SUB_BUCKET_BITS - 1)) - 1;
+        long subBucket = index - ((long) shift << (SUB_BUCKET_BITS - 1));
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
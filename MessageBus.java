@@ -0,0 +1,31 @@
+package org.example.myjavafx;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * MessageBus carries broadcasts between the {@link ChatServer} nodes of a cluster, so that clients
+ * connected to different nodes (e.g. behind a load balancer) see each other's messages.
+ * <p>
+ * A bus does not promise to deliver a message exactly once: receivers drop copies by message id
+ * with a {@link MessageDeduplicator}. A node does not receive its own messages.
+ */
+public interface MessageBus extends Closeable {
+
+    /**
+     * Sets the receiver of messages published by other nodes. It may be called on the bus's own
+     * thread or on a publisher's thread, so it must not block.
+     *
+     * @param listener The receiver.
+     */
+    void subscribe(Consumer<ClusterMessage> listener);
+
+    /**
+     * Sends a message to the other nodes.
+     *
+     * @param message The message.
+     * @throws IOException If the message cannot be sent.
+     */
+    void publish(ClusterMessage message) throws IOException;
+}
@@ -0,0 +1,74 @@
+package org.example.myjavafx;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MessageDeduplicator remembers which {@link ClusterMessage}s were already delivered, so that a
+ * message a bus delivers twice reaches the clients once.
+ * <p>
+ * For each origin node it keeps the highest sequence number seen and a bitmap of the
+ * {@link #WINDOW} numbers below it, so memory stays fixed however long the node runs. A message
+ * that arrives more than a window behind the newest one from its node is treated as a duplicate.
+ */
+public class MessageDeduplicator {
+
+    /** How far out of order a message may arrive and still be delivered. */
+    public static final int WINDOW = 1024;
+
+    private final Map<String, Window> origins = new ConcurrentHashMap<>();
+
+    /**
+     * Records a message as delivered.
+     *
+     * @param message The message.
+     * @return True the first time a message id is seen; false for a copy.
+     */
+    public boolean firstTime(ClusterMessage message) {
+        Window window = origins.computeIfAbsent(message.getOrigin(), origin -> new Window());
+        synchronized (window) {
+            return window.mark(message.getSequence());
+        }
+    }
+
+    /**
+     * The sequence numbers seen from one node: bit (n % WINDOW) is set if n was seen, for the
+     * WINDOW numbers up to the highest.
+     */
+    private static final class Window {
+        private final long[] seen = new long[WINDOW / 64];
+        private long highest;
+
+        private boolean mark(long sequence) {
+            if (sequence > highest) {
+                if (sequence - highest >= WINDOW) {
+                    Arrays.fill(seen, 0);
+                } else {
+                    for (long n = highest + 1; n < sequence; n++) clear(n);
+                }
+                highest = sequence;
+                set(sequence);
+                return true;
+            }
+            if (highest - sequence >= WINDOW || isSet(sequence)) return false;
+            set(sequence);
+            return true;
+        }
+
+        private boolean isSet(long n) {
+            int bit = (int) (n % WINDOW);
+            return (seen[bit >>> 6] & (1L << bit)) != 0;
+        }
+
+        private void set(long n) {
+            int bit = (int) (n % WINDOW);
+            seen[bit >>> 6] |= 1L << bit;
+        }
+
+        private void clear(long n) {
+            int bit = (int) (n % WINDOW);
+            seen[bit >>> 6] &= ~(1L << bit);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.example.myjavafx;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * MetricsEndpoint publishes a server's {@link ChatMetrics} as an MBean and, if a port is given, as
+ * Prometheus text on {@code http://127.0.0.1:<port>/metrics}. The HTTP server listens on loopback only
+ * and answers on a single thread, so scraping never competes with the chat for more than one core.
+ */
+public class MetricsEndpoint implements AutoCloseable {
+
+    private final HttpServer http;
+    private final ObjectName name;
+
+    /**
+     * Registers the MBean and starts the HTTP server.
+     *
+     * @param metrics The metrics to publish.
+     * @param port    The HTTP port, or 0 for JMX only.
+     * @param jmxName The MBean's object name.
+     * @throws IOException If the MBean cannot be registered or the port cannot be bound.
+     */
+    public MetricsEndpoint(ChatMetrics metrics, int port, String jmxName) throws IOException {
+        try {
+            this.name = new ObjectName(jmxName);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+        } catch (JMException e) {
+            throw new IOException("Cannot register chat metrics MBean: " + e.getMessage(), e);
+        }
+        if (port <= 0) {
+            http = null;
+            return;
+        }
+        http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.createContext("/metrics", exchange -> {
+            byte[] body = metrics.render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        http.start();
+    }
+
+    /**
+     * Stops the HTTP server and unregisters the MBean.
+     */
+    @Override
+    public void close() {
+        if (http != null) http.stop(0);
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            System.err.println("Error unregistering chat metrics MBean: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.example.myjavafx;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.util.Collections;
+import java.util.function.Consumer;
+
+/**
+ * MulticastMessageBus connects chat servers on one machine or one network segment through UDP
+ * multicast: each message is one datagram sent to the group, which every node has joined.
+ * <p>
+ * Several nodes on the same machine can share the group port, since multicast loopback is on and the
+ * port is bound with address reuse. UDP may drop or duplicate datagrams; duplicates are removed by the
+ * receiver's {@link MessageDeduplicator}, lost messages are not resent.
+ */
+public class MulticastMessageBus implements MessageBus {
+
+    /** Largest UDP payload over IPv4, and so the largest encoded {@link ClusterMessage} this bus can carry. */
+    public static final int MAX_DATAGRAM_BYTES = 65_507;
+
+    private final InetSocketAddress groupAddress;
+    private final String nodeId;
+    private final DatagramChannel channel;
+    private final MembershipKey membership;
+    private final Thread receiverThread;
+    private volatile Consumer<ClusterMessage> listener;
+    private volatile boolean closed;
+
+    /**
+     * Joins a multicast group and starts receiving.
+     *
+     * @param group         The group address, e.g. 230.0.0.1.
+     * @param port          The group port.
+     * @param interfaceName The network interface to use, or null for the first multicast-capable one.
+     * @param nodeId        This node's id; datagrams it sent itself are ignored when they loop back.
+     * @throws IOException If the group cannot be joined.
+     */
+    public MulticastMessageBus(InetAddress group, int port, String interfaceName, String nodeId) throws IOException {
+        this.groupAddress = new InetSocketAddress(group, port);
+        this.nodeId = nodeId;
+        NetworkInterface networkInterface = chooseInterface(interfaceName);
+        this.channel = DatagramChannel.open(StandardProtocolFamily.INET)
+                .setOption(StandardSocketOptions.SO_REUSEADDR, true)
+                .bind(new InetSocketAddress(port))
+                .setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface)
+                .setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true); // Other nodes on this machine
+        this.membership = channel.join(group, networkInterface);
+        this.receiverThread = new Thread(this::receiveLoop, "chat-cluster-receiver");
+        receiverThread.setDaemon(true);
+        receiverThread.start();
+    }
+
+    @Override
+    public void subscribe(Consumer<ClusterMessage> listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void publish(ClusterMessage message) throws IOException {
+        byte[] datagram = message.encode();
+        if (datagram.length > MAX_DATAGRAM_BYTES) {
+            throw new IOException("Message " + message.getId() + " is too large for a datagram");
+        }
+        channel.send(ByteBuffer.wrap(datagram), groupAddress);
+    }
+
+    /**
+     * Leaves the group and stops receiving.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        membership.drop();
+        channel.close();
+    }
+
+    private void receiveLoop() {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM_BYTES);
+        while (!closed) {
+            try {
+                buffer.clear();
+                channel.receive(buffer);
+                ClusterMessage message = ClusterMessage.decode(buffer.array(), 0, buffer.position());
+                Consumer<ClusterMessage> receiver = listener;
+                if (receiver != null && !message.getOrigin().equals(nodeId)) receiver.accept(message);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                // A stray or corrupt datagram on the group port; skip it
+                if (!closed) System.err.println("Ignoring bad chat cluster datagram: " + e.getMessage());
+            }
+        }
+    }
+
+    private static NetworkInterface chooseInterface(String name) throws IOException {
+        if (name != null) {
+            NetworkInterface named = NetworkInterface.getByName(name);
+            if (named == null) throw new IOException("No network interface " + name);
+            return named;
+        }
+        NetworkInterface loopback = null;
+        for (NetworkInterface candidate : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (!candidate.isUp() || !candidate.supportsMulticast()) continue;
+            if (!candidate.isLoopback()) return candidate;
+            loopback = candidate;
+        }
+        if (loopback == null) throw new IOException("No multicast-capable network interface");
+        return loopback;
+    }
+}
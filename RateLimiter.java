@@ -0,0 +1,60 @@
+package org.example.myjavafx;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RateLimiter is a token bucket: on average {@code permitsPerSecond} permits, up to {@code burst} at once.
+ * <p>
+ * The bucket is kept as the single time at which it would be full again (the generic cell rate
+ * algorithm), so taking permits is one compare-and-set with no lock and no refill thread, which
+ * makes it cheap enough to check on every read.
+ */
+public class RateLimiter {
+
+    private final long nanosPerPermit;
+    private final long burstNanos;
+    // When the permits handed out so far will have been paid back; at or before now the bucket is full
+    private final AtomicLong paidUpTo = new AtomicLong(System.nanoTime());
+
+    /**
+     * Creates a limiter with a full bucket.
+     *
+     * @param permitsPerSecond The average rate; 0 or less means unlimited.
+     * @param burst            The most permits available at once.
+     */
+    public RateLimiter(double permitsPerSecond, double burst) {
+        this.nanosPerPermit = permitsPerSecond > 0 ? (long) (1_000_000_000L / permitsPerSecond) : 0;
+        this.burstNanos = (long) (Math.max(1, burst) * nanosPerPermit);
+    }
+
+    /**
+     * Takes permits if the bucket holds them.
+     *
+     * @param permits The number of permits.
+     * @return True if they were taken; false (and nothing taken) if the rate would be exceeded.
+     */
+    public boolean tryAcquire(long permits) {
+        while (true) {
+            long now = System.nanoTime();
+            long paid = paidUpTo.get();
+            long next = Math.max(paid, now) + permits * nanosPerPermit;
+            if (next - now > burstNanos) return false;
+            if (paidUpTo.compareAndSet(paid, next)) return true;
+        }
+    }
+
+    /**
+     * Takes permits even if the bucket is short, for example for bytes that were already read.
+     *
+     * @param permits The number of permits.
+     * @return How long, in nanoseconds, the caller should pause to get back within the rate; 0 if not at all.
+     */
+    public long reserve(long permits) {
+        while (true) {
+            long now = System.nanoTime();
+            long paid = paidUpTo.get();
+            long next = Math.max(paid, now) + permits * nanosPerPermit;
+            if (paidUpTo.compareAndSet(paid, next)) return Math.max(0, next - now - burstNanos);
+        }
+    }
+}
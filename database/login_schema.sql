@@ -40,4 +40,93 @@ CREATE TABLE IF NOT EXISTS `sales` (
   `sale_time` TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
   FOREIGN KEY (`item_id`) REFERENCES `items`(`id`) ON DELETE CASCADE,
   PRIMARY KEY (`sale_id`)
-);
\ No newline at end of file
+);
+
+-- Change tracking for the dashboard's incremental refresh:
+-- updated_at moves on every insert/update, and deletions leave a tombstone row.
+ALTER TABLE `items`
+  ADD COLUMN `updated_at` TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3),
+  ADD INDEX `idx_items_updated_at` (`updated_at`);
+
+CREATE TABLE IF NOT EXISTS `items_deleted` (
+  `deletion_id` BIGINT NOT NULL AUTO_INCREMENT,
+  `item_id` INT NOT NULL,
+  `deleted_at` TIMESTAMP(3) DEFAULT CURRENT_TIMESTAMP(3),
+  PRIMARY KEY (`deletion_id`)
+);
+
+CREATE TRIGGER `items_after_delete` AFTER DELETE ON `items`
+  FOR EACH ROW INSERT INTO `items_deleted` (`item_id`) VALUES (OLD.id);
+
+-- Keyset pagination of the dashboard's sales table (newest first)
+CREATE INDEX `idx_sales_time_id` ON `sales` (`sale_time`, `sale_id`);
+
+-- Price at time of sale, so revenue stays correct after price edits
+ALTER TABLE `sales` ADD COLUMN `unit_price` DECIMAL(10,2) NULL;
+UPDATE `sales` s JOIN `items` i ON s.item_id = i.id SET s.unit_price = i.price WHERE s.unit_price IS NULL;
+
+-- Running totals maintained by every sale, read by the dashboard instead of summing all sales.
+-- Striped over 16 slot rows (SalesEngine.TOTALS_SLOTS) so concurrent sales don't queue on one row lock;
+-- the totals are the SUM over all slots.
+CREATE TABLE IF NOT EXISTS `sales_totals` (
+  `id` TINYINT NOT NULL,
+  `sale_count` BIGINT NOT NULL DEFAULT 0,
+  `total_qty` BIGINT NOT NULL DEFAULT 0,
+  `total_revenue` DECIMAL(14,2) NOT NULL DEFAULT 0,
+  PRIMARY KEY (`id`)
+);
+
+INSERT INTO `sales_totals` (`id`, `sale_count`, `total_qty`, `total_revenue`)
+SELECT 1, COUNT(*), COALESCE(SUM(quantity_sold), 0), COALESCE(SUM(quantity_sold * unit_price), 0) FROM `sales`;
+
+INSERT IGNORE INTO `sales_totals` (`id`)
+VALUES (2), (3), (4), (5), (6), (7), (8), (9), (10), (11), (12), (13), (14), (15), (16);
+
+-- Payments made through the payment form; payment_time is indexed for the end-of-day receipt export
+CREATE TABLE IF NOT EXISTS `payments` (
+  `id` BIGINT NOT NULL AUTO_INCREMENT,
+  `username` VARCHAR(45) NOT NULL,
+  `payment_type` VARCHAR(10) NOT NULL,
+  `amount` DECIMAL(10,2) NOT NULL,
+  `account_number` VARCHAR(11) NULL,
+  `card_number` VARCHAR(10) NULL,
+  `cvv` VARCHAR(4) NULL,
+  `expiry_date` VARCHAR(7) NULL,
+  `payment_time` TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`id`),
+  INDEX `idx_payments_time` (`payment_time`, `id`)
+);
+
+-- Where each payment's receipt PDF is stored (relative to the receipt directory),
+-- and a hash of its contents so an unchanged receipt is not rendered twice
+CREATE TABLE IF NOT EXISTS `receipt_index` (
+  `payment_id` BIGINT NOT NULL,
+  `path` VARCHAR(255) NOT NULL,
+  `content_hash` CHAR(64) NOT NULL,
+  `created_at` TIMESTAMP(3) DEFAULT CURRENT_TIMESTAMP(3),
+  FOREIGN KEY (`payment_id`) REFERENCES `payments`(`id`) ON DELETE CASCADE,
+  PRIMARY KEY (`payment_id`)
+);
+
+-- Keyset pagination of a user's payment history (newest first)
+CREATE INDEX `idx_payments_user_time` ON `payments` (`username`, `payment_time`, `id`);
+
+-- Idempotent payment submission: each attempt carries a client-generated key, recorded at most once
+ALTER TABLE `payments`
+  ADD COLUMN `idempotency_key` CHAR(36) NULL,
+  ADD UNIQUE KEY `uq_payments_idempotency_key` (`idempotency_key`);
+
+-- Transactional outbox: written with each payment, drained by db.PaymentOutbox to render receipts
+-- and send notifications after the payment has committed
+CREATE TABLE IF NOT EXISTS `payment_outbox` (
+  `id` BIGINT NOT NULL AUTO_INCREMENT,
+  `payment_id` BIGINT NOT NULL,
+  `created_at` TIMESTAMP(3) DEFAULT CURRENT_TIMESTAMP(3),
+  `next_attempt_at` TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+  `attempts` INT NOT NULL DEFAULT 0,
+  `last_error` VARCHAR(255) NULL,
+  `processed_at` TIMESTAMP(3) NULL,
+  FOREIGN KEY (`payment_id`) REFERENCES `payments`(`id`) ON DELETE CASCADE,
+  PRIMARY KEY (`id`),
+  INDEX `idx_payment_outbox_due` (`processed_at`, `next_attempt_at`, `id`)
+);
@@ -5,6 +5,8 @@ module org.example.myjavafx {
     requires org.controlsfx.controls;
     requires com.dlsc.formsfx;
     requires org.kordamp.bootstrapfx.core;
+    requires jdk.httpserver;
+    requires java.management;
 
     opens org.example.myjavafx to javafx.fxml;
     exports org.example.myjavafx;
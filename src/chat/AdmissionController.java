@@ -0,0 +1,70 @@
+package chat;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Server-wide limits shared by every connection of a chat server: how many clients may be connected,
+// how many bytes per second all of them together may send, and the per-client message rate.
+// Everything is lock-free, so the engines can call it on their read paths.
+public class AdmissionController {
+    public static final String SERVER_FULL_NOTICE = "*** Server is full, please try again later ***";
+    public static final String THROTTLED_NOTICE = "*** You are sending too fast; messages are being dropped ***";
+
+    private final int maxConnections;
+    private final double clientMessagesPerSecond;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final RateLimiter inboundBytes;
+    private final LongAdder refused = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+
+    // A limit of 0 or less means unlimited
+    public AdmissionController(int maxConnections, long maxInboundBytesPerSecond, double clientMessagesPerSecond) {
+        this.maxConnections = maxConnections > 0 ? maxConnections : Integer.MAX_VALUE;
+        this.clientMessagesPerSecond = clientMessagesPerSecond;
+        // A second's worth may arrive at once
+        this.inboundBytes = new RateLimiter(maxInboundBytesPerSecond, maxInboundBytesPerSecond);
+    }
+
+    // Counts a new connection in; false (and counted as refused) if the server is full
+    public boolean tryAdmit() {
+        if (connections.incrementAndGet() > maxConnections) {
+            connections.decrementAndGet();
+            refused.increment();
+            return false;
+        }
+        return true;
+    }
+
+    // Once per admitted connection, when it closes
+    public void release() {
+        connections.decrementAndGet();
+    }
+
+    // Accounts for bytes just read from a client. Returns how long (nanos) that client's reads should
+    // pause so all clients together stay within the inbound limit; not reading pushes back through TCP.
+    public long onBytesRead(long bytes) {
+        return inboundBytes.reserve(bytes);
+    }
+
+    // The message limiter for one new client: clientMessagesPerSecond on average, bursts of twice that
+    public RateLimiter newClientLimiter() {
+        return new RateLimiter(clientMessagesPerSecond, 2 * clientMessagesPerSecond);
+    }
+
+    // Called when a client's message is dropped by its limiter
+    public void onThrottled() {
+        throttled.increment();
+    }
+
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    public long getRefusedCount() {
+        return refused.sum();
+    }
+
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+}
@@ -0,0 +1,48 @@
+package chat;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The multi-user complaint chat protocol (org.example.myjavafx.ChatClient): the first line is the
+// client's name, every later line is broadcast to all named clients as "name: message".
+public class BroadcastChatProtocol implements ChatProtocol {
+    private final Set<ChatConnection> members = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public void onConnect(ChatConnection connection) {
+        ChatServer.logMessage("New client connected: " + connection.getRemoteAddress());
+    }
+
+    @Override
+    public void onLine(ChatConnection connection, String line) {
+        String clientName = (String) connection.getAttachment();
+        if (clientName == null) {
+            connection.setAttachment(line);
+            members.add(connection);
+            broadcast(line + " has joined the chat.");
+        } else {
+            broadcast(clientName + ": " + line);
+        }
+    }
+
+    @Override
+    public void onDisconnect(ChatConnection connection) {
+        if (members.remove(connection)) {
+            broadcast(connection.getAttachment() + " has left the chat.");
+        }
+        ChatServer.logMessage("Client disconnected: " + connection.getRemoteAddress());
+    }
+
+    private void broadcast(String composed) {
+        String message = ChatFrame.fitPayload(composed);
+        ChatServer.logMessage(message);
+        ChatConsole.sampled(ChatConsole.Level.INFO, () -> message);
+        long start = System.nanoTime();
+        int recipients = 0;
+        for (ChatConnection member : members) {
+            member.send(message);
+            recipients++;
+        }
+        ChatMetrics.shared().onFanOut(recipients, System.nanoTime() - start);
+    }
+}
@@ -6,13 +6,35 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.*;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ChatClient extends JFrame {
     private JTextArea chatArea;
     private JTextField messageField;
-    private PrintWriter out;
-    private BufferedReader in;
-    private Socket socket;
+    private static final int HEARTBEAT_SECONDS = 15;
+    // How long to wait for the server to confirm the framed protocol before falling back to text
+    private static final int MAGIC_TIMEOUT_MILLIS = 2000;
+
+    // Speaks the binary ChatFrame protocol when the server echoes MAGIC: messages are pipelined and
+    // acknowledged by id. Any other server gets newline-delimited text.
+    // Set by the connecting thread; out is set last, once the connection is ready to send on.
+    private volatile DataOutputStream out;
+    private DataInputStream in;
+    private volatile Socket socket;
+    private volatile boolean framed;
+    private volatile boolean disposed;
+    private final AtomicLong nextFrameId = new AtomicLong();
+    // Sent messages the server has not acknowledged yet, by frame id
+    private final Map<Long, String> unacked = new ConcurrentHashMap<>();
+    private volatile ScheduledExecutorService heartbeat;
 
     public ChatClient() {
         setTitle("💬 Chat with System");
@@ -51,34 +73,103 @@ public class ChatClient extends JFrame {
 
         add(inputPanel, BorderLayout.SOUTH);
 
-        // Connect to server
-        connectToServer();
+        // Connect to server off the EDT: connecting and the protocol offer can take seconds
+        new Thread(this::connectToServer, "chat-connect").start();
     }
 
     private void connectToServer() {
         try {
-            socket = new Socket("127.0.0.1", 12345); // Connect to localhost, port 12345
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(socket.getOutputStream(), true);
+            Socket connection = new Socket("127.0.0.1", 12345); // Connect to localhost, port 12345
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            socket = connection;
+            framed = offerFrames(connection, output);
+            if (!framed) {
+                // A text-only server has taken the magic bytes as the start of a line: start over in text
+                connection.close();
+                connection = new Socket("127.0.0.1", 12345);
+                output = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+                in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+                socket = connection;
+            }
+            out = output;
+            if (disposed) { // Window closed while connecting
+                connection.close();
+                return;
+            }
 
-            chatArea.append("Connected to chat system.\n");
+            SwingUtilities.invokeLater(() -> chatArea.append("Connected to chat system.\n"));
 
             // Start a new thread to listen for server messages
             new Thread(() -> {
-                String serverMessage;
                 try {
-                    while ((serverMessage = in.readLine()) != null) {
-                        String finalServerMessage = serverMessage;
-                        SwingUtilities.invokeLater(() -> chatArea.append("System: " + finalServerMessage + "\n"));
+                    if (!framed) {
+                        BufferedReader lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                        String serverMessage;
+                        while ((serverMessage = lines.readLine()) != null) {
+                            String finalServerMessage = serverMessage;
+                            SwingUtilities.invokeLater(() -> chatArea.append("System: " + finalServerMessage + "\n"));
+                        }
+                        SwingUtilities.invokeLater(() -> chatArea.append("Disconnected from server.\n"));
+                        return;
                     }
+                    ChatFrame frame;
+                    while ((frame = ChatFrame.read(in)) != null) {
+                        if (frame.getType() == ChatFrame.MESSAGE) {
+                            String finalServerMessage = frame.getPayload();
+                            SwingUtilities.invokeLater(() -> chatArea.append("System: " + finalServerMessage + "\n"));
+                        } else if (frame.getType() == ChatFrame.ACK) {
+                            unacked.remove(frame.getId());
+                        } else if (frame.getType() == ChatFrame.THROTTLE) {
+                            // Dropped by the server: it will never be acknowledged
+                            String dropped = unacked.remove(frame.getId());
+                            String notice = frame.getPayload() + (dropped != null ? " (not delivered: \"" + dropped + "\")" : "");
+                            SwingUtilities.invokeLater(() -> chatArea.append(notice + "\n"));
+                        }
+                    }
+                    SwingUtilities.invokeLater(() -> chatArea.append("Disconnected from server.\n"));
                 } catch (IOException e) {
                     SwingUtilities.invokeLater(() -> chatArea.append("Disconnected from server.\n"));
                 }
             }).start();
 
+            if (!framed) return;
+
+            // Keeps idle connections alive through NATs and lets the server notice dead clients
+            heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "chat-heartbeat");
+                t.setDaemon(true);
+                return t;
+            });
+            heartbeat.scheduleAtFixedRate(() -> {
+                try {
+                    sendFrame(ChatFrame.HEARTBEAT, null);
+                } catch (IOException e) {
+                    heartbeat.shutdown();
+                }
+            }, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+
         } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Could not connect to the chat server.", "Connection Error", JOptionPane.ERROR_MESSAGE);
-            chatArea.append("Could not connect to chat server. Please ensure the server is running.\n");
+            if (disposed) return;
+            SwingUtilities.invokeLater(() -> {
+                JOptionPane.showMessageDialog(this, "Could not connect to the chat server.", "Connection Error", JOptionPane.ERROR_MESSAGE);
+                chatArea.append("Could not connect to chat server. Please ensure the server is running.\n");
+            });
+        }
+    }
+
+    // Offers the framed protocol: true if the server confirms by echoing MAGIC, false if it answers
+    // anything else or nothing in time
+    private boolean offerFrames(Socket connection, DataOutputStream output) throws IOException {
+        output.write(ChatFrame.MAGIC);
+        output.flush();
+        connection.setSoTimeout(MAGIC_TIMEOUT_MILLIS);
+        try {
+            return Arrays.equals(in.readNBytes(ChatFrame.MAGIC.length), ChatFrame.MAGIC);
+        } catch (SocketTimeoutException e) {
+            return false;
+        } finally {
+            connection.setSoTimeout(0);
         }
     }
 
@@ -89,17 +180,51 @@ public class ChatClient extends JFrame {
             if (message != null && !message.trim().isEmpty()) {
                 chatArea.append("You: " + message + "\n");
                 if (out != null) {
-                    out.println(message); // Send message to server
+                    try {
+                        if (framed) {
+                            // Not waiting for the ACK: several messages can be in flight at once
+                            sendFrame(ChatFrame.MESSAGE, message); // Send message to server
+                        } else {
+                            sendLine(message);
+                        }
+                    } catch (IOException ex) {
+                        chatArea.append("Could not send message: " + ex.getMessage() + "\n");
+                    }
                 }
                 messageField.setText(""); // Clear the input field
             }
         }
     }
 
+    // Writes one frame under the next id; a MESSAGE is remembered until the server ACKs it.
+    // Called from the EDT and the heartbeat thread.
+    private synchronized void sendFrame(byte type, String payload) throws IOException {
+        long id = nextFrameId.incrementAndGet();
+        // A message is tracked before it is written: its ACK can come back before write() returns
+        if (type == ChatFrame.MESSAGE) unacked.put(id, payload);
+        try {
+            out.write(ChatFrame.encode(type, id, payload));
+            out.flush();
+        } catch (IOException e) {
+            unacked.remove(id);
+            throw e;
+        }
+    }
+
+    // Writes one line to a text-only server
+    private synchronized void sendLine(String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
     // Optional: Override window closing to close socket gracefully
     @Override
     public void dispose() {
         super.dispose();
+        disposed = true;
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+        }
         try {
             if (socket != null && !socket.isClosed()) {
                 socket.close();
@@ -0,0 +1,313 @@
+package chat;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One client of NioChatServer: a non-blocking channel plus its partial inbound line and queued outbound bytes.
+// The first bytes decide the wire format: ChatFrame.MAGIC switches to binary frames, anything else is text lines.
+// send() and close() may be called from any thread; everything else runs on the owning event loop.
+// Messages beyond the client's rate are dropped with a throttle notice, and while all clients together
+// are over the inbound byte limit the connection stops reading for a while, which pushes back through TCP.
+public class ChatConnection {
+    // A line longer than this is a broken or hostile client
+    static final int MAX_LINE_BYTES = 64 * 1024;
+    private static final int MAX_FRAME_BYTES = 4 + ChatFrame.HEADER_BYTES + ChatFrame.MAX_PAYLOAD_BYTES;
+
+    private static final int UNDECIDED = 0;
+    private static final int TEXT = 1;
+    private static final int FRAMED = 2;
+    // A client this far behind on reading is dropped rather than buffered without limit
+    static final long MAX_PENDING_BYTES = 1024 * 1024;
+
+    private final SocketChannel channel;
+    private final NioChatServer.EventLoop loop;
+    private final ChatProtocol protocol;
+    private final AdmissionController admission;
+    private final RateLimiter messageLimiter;
+    private final String remoteAddress;
+    private SelectionKey key;
+
+    private volatile int mode = UNDECIDED;
+    // Bytes of the current line (without its '\n') or of the unfinished frames received so far
+    private byte[] lineBuffer = new byte[256];
+    private int lineLength;
+    // Ids of the frames this server sends
+    private final AtomicLong outboundIds = new AtomicLong();
+    // Told the text client it is throttled, and it has not slowed down since
+    private boolean throttled;
+
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private volatile Object attachment;
+
+    // The client has already been admitted; the connection releases it when closed
+    ChatConnection(SocketChannel channel, NioChatServer.EventLoop loop, ChatProtocol protocol, AdmissionController admission) {
+        this.channel = channel;
+        this.loop = loop;
+        this.protocol = protocol;
+        this.admission = admission;
+        this.messageLimiter = admission.newClientLimiter();
+        String address;
+        try {
+            SocketAddress remote = channel.getRemoteAddress();
+            address = remote != null ? remote.toString() : "unknown";
+        } catch (IOException e) {
+            address = "unknown";
+        }
+        this.remoteAddress = address;
+    }
+
+    // Queues one line for this client, as a MESSAGE frame if it speaks ChatFrame.
+    public void send(String message) {
+        if (mode == FRAMED) {
+            sendFrame(ChatFrame.MESSAGE, outboundIds.incrementAndGet(), message);
+        } else {
+            send(ByteBuffer.wrap((message + "\n").getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    private void sendFrame(byte type, long id, String payload) {
+        send(ByteBuffer.wrap(ChatFrame.encode(type, id, payload)));
+    }
+
+    // Queues already-encoded bytes. The buffer must not be changed afterwards; duplicate() a shared one.
+    public void send(ByteBuffer bytes) {
+        if (closed.get()) return;
+        if (pendingBytes.addAndGet(bytes.remaining()) > MAX_PENDING_BYTES) {
+            System.err.println("Dropping slow chat client " + remoteAddress);
+            close();
+            return;
+        }
+        outbound.add(bytes);
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(this::flush);
+        }
+    }
+
+    public void close() {
+        loop.execute(this::closeNow);
+    }
+
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    // Per-connection protocol state, e.g. the client's name
+    public Object getAttachment() {
+        return attachment;
+    }
+
+    public void setAttachment(Object attachment) {
+        this.attachment = attachment;
+    }
+
+    public boolean isFramed() {
+        return mode == FRAMED;
+    }
+
+    public boolean isOpen() {
+        return !closed.get();
+    }
+
+    // --- Event-loop side ---
+
+    void register(SelectionKey key) {
+        this.key = key;
+        protocol.onConnect(this);
+        if (!outbound.isEmpty()) flush();
+    }
+
+    // Reads what is available and hands every complete line to the protocol.
+    void onReadable(ByteBuffer readBuffer) {
+        try {
+            while (true) {
+                readBuffer.clear();
+                int n = channel.read(readBuffer);
+                if (n < 0) {
+                    closeNow();
+                    return;
+                }
+                if (n == 0) return;
+                readBuffer.flip();
+                if (!consume(readBuffer)) return;
+                long pause = admission.onBytesRead(n);
+                if (pause > 0) {
+                    pauseReading(pause);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            closeNow();
+        }
+    }
+
+    private void pauseReading(long nanos) {
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        loop.schedule(nanos, () -> {
+            if (key.isValid()) key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        });
+    }
+
+    // Whether a message may go to the protocol; drops it otherwise
+    private boolean admitMessage() {
+        if (messageLimiter.tryAcquire(1)) {
+            throttled = false;
+            ChatMetrics.shared().onMessageIn();
+            return true;
+        }
+        admission.onThrottled();
+        return false;
+    }
+
+    private boolean consume(ByteBuffer bytes) {
+        if (mode == UNDECIDED) {
+            byte[] prefix = detectMode(bytes);
+            if (mode == UNDECIDED) return true; // Still could be MAGIC; wait for more bytes
+            if (prefix != null && !consumeLines(ByteBuffer.wrap(prefix))) return false;
+        }
+        return mode == FRAMED ? consumeFrames(bytes) : consumeLines(bytes);
+    }
+
+    // Collects up to MAGIC.length bytes. Returns the collected bytes if they turned out to be text.
+    private byte[] detectMode(ByteBuffer bytes) {
+        while (bytes.hasRemaining() && lineLength < ChatFrame.MAGIC.length) {
+            lineBuffer[lineLength++] = bytes.get();
+            if (!ChatFrame.isMagicPrefix(lineBuffer, lineLength)) {
+                mode = TEXT;
+                byte[] prefix = Arrays.copyOf(lineBuffer, lineLength);
+                lineLength = 0;
+                return prefix;
+            }
+        }
+        if (lineLength == ChatFrame.MAGIC.length) {
+            mode = FRAMED;
+            lineLength = 0;
+            send(ByteBuffer.wrap(ChatFrame.MAGIC.clone())); // Confirms the binary protocol
+        }
+        return null;
+    }
+
+    private boolean consumeFrames(ByteBuffer bytes) {
+        while (bytes.hasRemaining()) {
+            int n = Math.min(bytes.remaining(), MAX_FRAME_BYTES - lineLength);
+            if (lineLength + n > lineBuffer.length) {
+                lineBuffer = Arrays.copyOf(lineBuffer, Math.min(Math.max(lineBuffer.length * 2, lineLength + n), MAX_FRAME_BYTES));
+            }
+            bytes.get(lineBuffer, lineLength, n);
+            lineLength += n;
+
+            int start = 0;
+            while (lineLength - start >= 4) {
+                int length = ByteBuffer.wrap(lineBuffer, start, 4).getInt();
+                if (!ChatFrame.isValidLength(length)) {
+                    System.err.println("Bad frame from chat client " + remoteAddress);
+                    closeNow();
+                    return false;
+                }
+                if (lineLength - start - 4 < length) break; // Rest of the frame not here yet
+                onFrame(ChatFrame.decode(lineBuffer, start + 4, length));
+                start += 4 + length;
+                if (closed.get()) return false;
+            }
+            System.arraycopy(lineBuffer, start, lineBuffer, 0, lineLength - start);
+            lineLength -= start;
+        }
+        return true;
+    }
+
+    private void onFrame(ChatFrame frame) {
+        switch (frame.getType()) {
+            case ChatFrame.HELLO:
+            case ChatFrame.MESSAGE:
+                if (!admitMessage()) {
+                    // Every dropped frame is named, so the client can stop waiting for its ACK
+                    sendFrame(ChatFrame.THROTTLE, frame.getId(), AdmissionController.THROTTLED_NOTICE);
+                    break;
+                }
+                protocol.onLine(this, frame.getPayload());
+                if (frame.getId() != 0 && !closed.get()) sendFrame(ChatFrame.ACK, frame.getId(), null);
+                break;
+            case ChatFrame.HEARTBEAT:
+                sendFrame(ChatFrame.HEARTBEAT, frame.getId(), null);
+                break;
+            default:
+                break; // ACKs of what we sent need no answer
+        }
+    }
+
+    private boolean consumeLines(ByteBuffer bytes) {
+        while (bytes.hasRemaining()) {
+            byte b = bytes.get();
+            if (b == '\n') {
+                int end = lineLength;
+                if (end > 0 && lineBuffer[end - 1] == '\r') end--;
+                String line = new String(lineBuffer, 0, end, StandardCharsets.UTF_8);
+                lineLength = 0;
+                if (admitMessage()) {
+                    protocol.onLine(this, line);
+                } else if (!throttled) {
+                    send(AdmissionController.THROTTLED_NOTICE);
+                    throttled = true; // Once, not per dropped line
+                }
+                if (closed.get()) return false;
+            } else {
+                if (lineLength == MAX_LINE_BYTES) {
+                    System.err.println("Line too long from chat client " + remoteAddress);
+                    closeNow();
+                    return false;
+                }
+                if (lineLength == lineBuffer.length) {
+                    lineBuffer = Arrays.copyOf(lineBuffer, Math.min(lineBuffer.length * 2, MAX_LINE_BYTES));
+                }
+                lineBuffer[lineLength++] = b;
+            }
+        }
+        return true;
+    }
+
+    // Writes queued bytes until the socket buffer fills, then waits for OP_WRITE.
+    void flush() {
+        flushScheduled.set(false);
+        if (closed.get() || key == null) return;
+        try {
+            ByteBuffer head;
+            while ((head = outbound.peek()) != null) {
+                int written = channel.write(head);
+                pendingBytes.addAndGet(-written);
+                if (head.hasRemaining()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                outbound.poll();
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            closeNow();
+        }
+    }
+
+    void closeNow() {
+        if (!closed.compareAndSet(false, true)) return;
+        if (key != null) key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing client socket: " + e.getMessage());
+        }
+        outbound.clear();
+        admission.release();
+        if (key != null) protocol.onDisconnect(this);
+    }
+}
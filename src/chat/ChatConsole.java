@@ -0,0 +1,43 @@
+package chat;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+// Console output of the chat servers. System.out.println is synchronized and slow, so it must not run
+// for every message: lines below the configured level are skipped before their text is built, and
+// per-message lines are sampled - one in sampleRate is printed, chosen at random without shared state.
+public final class ChatConsole {
+    public enum Level {
+        ERROR, WARN, INFO, DEBUG
+    }
+
+    private static volatile Level level = Level.INFO;
+    private static volatile int sampleRate = 100;
+
+    private ChatConsole() {
+    }
+
+    // From --console=error|warn|info|debug and --console-sample=N (1 prints every message)
+    public static void configure(String levelName, int rate) {
+        level = Level.valueOf(levelName.toUpperCase(Locale.ROOT));
+        sampleRate = Math.max(1, rate);
+    }
+
+    public static boolean isEnabled(Level lineLevel) {
+        return lineLevel.compareTo(level) <= 0;
+    }
+
+    public static void log(Level lineLevel, String message) {
+        if (!isEnabled(lineLevel)) return;
+        (lineLevel.compareTo(Level.WARN) <= 0 ? System.err : System.out).println(message);
+    }
+
+    // For lines printed per message: gated by level, then sampled
+    public static void sampled(Level lineLevel, Supplier<String> message) {
+        if (!isEnabled(lineLevel)) return;
+        int rate = sampleRate;
+        if (rate > 1 && ThreadLocalRandom.current().nextInt(rate) != 0) return;
+        log(lineLevel, rate > 1 ? message.get() + " [1 in " + rate + "]" : message.get());
+    }
+}
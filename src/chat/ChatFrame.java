@@ -0,0 +1,127 @@
+package chat;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Binary chat wire format. A client offers it by sending MAGIC as its first four bytes and the server
+// confirms by echoing MAGIC; a client that starts with anything else stays on newline-delimited text.
+// Frame: int length (of everything after it) | byte type | long id | long timestamp millis | UTF-8 payload
+// Clients number their frames and may send many without waiting; the server ACKs each id it has handled.
+public final class ChatFrame {
+    public static final byte[] MAGIC = {'C', 'H', 'F', '1'};
+    public static final int HEADER_BYTES = 1 + 8 + 8;
+    public static final int MAX_PAYLOAD_BYTES = 64 * 1024;
+
+    public static final byte HELLO = 1;     // payload: what a text client sends as its first line (its name)
+    public static final byte MESSAGE = 2;   // payload: one chat line
+    public static final byte ACK = 3;       // id: the id of the handled frame
+    public static final byte HEARTBEAT = 4; // answered with a HEARTBEAT carrying the same id
+    public static final byte THROTTLE = 5;  // id: the id of a frame dropped for arriving too fast; payload: a notice
+
+    private final byte type;
+    private final long id;
+    private final long timestamp;
+    private final String payload;
+
+    public ChatFrame(byte type, long id, long timestamp, String payload) {
+        this.type = type;
+        this.id = id;
+        this.timestamp = timestamp;
+        this.payload = payload;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    // The longest prefix of text that fits in one frame's payload, cut at a character boundary.
+    // Everything the server composes from client input (e.g. "name: message") must pass through this:
+    // a frame over the limit would be rejected by every framed client.
+    public static String fitPayload(String text) {
+        // A char is at most 3 UTF-8 bytes; surrogate pairs are 4 bytes for 2 chars
+        if (text.length() * 3 <= MAX_PAYLOAD_BYTES) return text;
+        int bytes = 0;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            bytes += codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+            if (bytes > MAX_PAYLOAD_BYTES) return text.substring(0, i);
+            i += Character.charCount(codePoint);
+        }
+        return text;
+    }
+
+    public static byte[] encode(byte type, long id, String payload) {
+        byte[] text = payload == null ? new byte[0] : payload.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(4 + HEADER_BYTES + text.length);
+        frame.putInt(HEADER_BYTES + text.length)
+                .put(type)
+                .putLong(id)
+                .putLong(System.currentTimeMillis())
+                .put(text);
+        return frame.array();
+    }
+
+    // Decodes one frame body (everything after the length field)
+    public static ChatFrame decode(byte[] bytes, int offset, int length) {
+        ByteBuffer body = ByteBuffer.wrap(bytes, offset, length);
+        byte type = body.get();
+        long id = body.getLong();
+        long timestamp = body.getLong();
+        String payload = new String(bytes, offset + HEADER_BYTES, length - HEADER_BYTES, StandardCharsets.UTF_8);
+        return new ChatFrame(type, id, timestamp, payload);
+    }
+
+    // Reads one frame from a blocking stream; null at end of stream
+    public static ChatFrame read(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (!isValidLength(length)) throw new IOException("Bad chat frame length " + length);
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return decode(body, 0, length);
+    }
+
+    public static boolean isValidLength(int length) {
+        return length >= HEADER_BYTES && length <= HEADER_BYTES + MAX_PAYLOAD_BYTES;
+    }
+
+    // Reads the first bytes of a connection: true (and consumed) if they are MAGIC.
+    // The stream must support mark/reset; anything else is left unread. Stops at the first byte
+    // that differs, so a short text line is never waited on.
+    public static boolean readMagic(InputStream in) throws IOException {
+        in.mark(MAGIC.length);
+        for (byte expected : MAGIC) {
+            if (in.read() != expected) {
+                in.reset();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // True while the bytes seen so far could still be the start of MAGIC
+    public static boolean isMagicPrefix(byte[] bytes, int length) {
+        return length <= MAGIC.length && Arrays.equals(bytes, 0, length, MAGIC, 0, length);
+    }
+}
@@ -0,0 +1,177 @@
+package chat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Appends chat log lines from one background thread, so logging never waits for the disk.
+// Any number of threads enqueue on a lock-free queue; the writer drains it in batches, writes each
+// batch with one call on a file channel that stays open, and forces it to disk per the FsyncPolicy.
+public final class ChatLogWriter implements AutoCloseable {
+    public enum FsyncPolicy {
+        NEVER,       // leave it to the OS
+        EVERY_BATCH, // nothing acknowledged by a write is lost, at one fsync per batch
+        INTERVAL     // at most fsyncIntervalMillis of log lost on a crash
+    }
+
+    private static final int MAX_BATCH = 4096;
+    // Past this many waiting lines new ones are dropped (and counted) rather than growing without limit
+    private static final int MAX_QUEUED = 100_000;
+
+    private final FileChannel channel;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writerThread;
+    private volatile boolean sleeping;
+    private volatile boolean closed;
+
+    // Only touched by the writer thread
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private long formattedSecond = -1;
+    private String formattedTime;
+    private final StringBuilder batch = new StringBuilder(64 * 1024);
+    private boolean unsynced;
+    private long lastSync = System.nanoTime();
+
+    public ChatLogWriter(String file, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis) throws IOException {
+        this.channel = FileChannel.open(Path.of(file),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis);
+        this.writerThread = new Thread(this::drainLoop, "chat-log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    // Queues one line; returns immediately.
+    public void log(String message) {
+        if (closed) return;
+        if (queued.incrementAndGet() > MAX_QUEUED) {
+            queued.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        queue.add(new Entry(System.currentTimeMillis(), message));
+        if (sleeping) LockSupport.unpark(writerThread);
+    }
+
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    // Writes out everything queued so far, forces it to disk and stops the writer thread.
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing chat log: " + e.getMessage());
+        }
+    }
+
+    private void drainLoop() {
+        while (true) {
+            boolean wrote = writeBatch();
+            if (!wrote) {
+                if (closed) break;
+                sleeping = true;
+                // Re-check after announcing the sleep, so a line queued just before is not left waiting
+                if (queue.isEmpty() && !closed) {
+                    boolean syncPending = fsyncPolicy == FsyncPolicy.INTERVAL && unsynced;
+                    LockSupport.parkNanos(this, syncPending ? fsyncIntervalNanos : TimeUnit.SECONDS.toNanos(1));
+                }
+                sleeping = false;
+            }
+            syncIfDue();
+        }
+        forceToDisk();
+    }
+
+    // Returns false if there was nothing to write
+    private boolean writeBatch() {
+        Entry entry;
+        int count = 0;
+        while (count < MAX_BATCH && (entry = queue.poll()) != null) {
+            batch.append(timestamp(entry.time)).append(" - ").append(entry.message).append('\n');
+            count++;
+        }
+        if (count == 0) return false;
+        queued.addAndGet(-count);
+
+        ByteBuffer bytes = ByteBuffer.wrap(batch.toString().getBytes(StandardCharsets.UTF_8));
+        batch.setLength(0);
+        try {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            unsynced = true;
+            if (fsyncPolicy == FsyncPolicy.EVERY_BATCH) forceToDisk();
+        } catch (IOException e) {
+            System.err.println("Error writing to chat log: " + e.getMessage());
+        }
+        return true;
+    }
+
+    private void syncIfDue() {
+        if (fsyncPolicy == FsyncPolicy.INTERVAL && unsynced && System.nanoTime() - lastSync >= fsyncIntervalNanos) {
+            forceToDisk();
+        }
+    }
+
+    private void forceToDisk() {
+        if (!unsynced) return;
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            System.err.println("Error syncing chat log: " + e.getMessage());
+        }
+        unsynced = false;
+        lastSync = System.nanoTime();
+    }
+
+    // Lines arrive in bursts within the same second, so the formatted time is reused
+    private String timestamp(long millis) {
+        long second = millis / 1000;
+        if (second != formattedSecond) {
+            formattedSecond = second;
+            formattedTime = timeFormat.format(new Date(millis));
+        }
+        return formattedTime;
+    }
+
+    private static final class Entry {
+        private final long time;
+        private final String message;
+
+        private Entry(long time, String message) {
+            this.time = time;
+            this.message = message;
+        }
+    }
+}
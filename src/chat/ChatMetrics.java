@@ -0,0 +1,190 @@
+package chat;
+
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters and gauges of the chat server, exported by MetricsEndpoint over HTTP and JMX.
+// Recording is a LongAdder increment or a histogram bucket increment, so it can sit on the message path.
+// Rates are averaged over the last RATE_WINDOW_SECONDS from once-a-second samples of the counters.
+public class ChatMetrics implements ChatMetricsMXBean {
+    private static final int RATE_WINDOW_SECONDS = 10;
+    private static final ChatMetrics SHARED = new ChatMetrics();
+
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LatencyHistogram fanOutNanos = new LatencyHistogram();
+
+    // What the gauges read; set by ChatServer once they exist
+    private volatile AdmissionController admission;
+    private volatile ChatLogWriter chatLog;
+
+    // Ring of per-second samples of the two counters; only touched under this object's lock
+    private final long[] inSamples = new long[RATE_WINDOW_SECONDS + 1];
+    private final long[] outSamples = new long[RATE_WINDOW_SECONDS + 1];
+    private int samples;
+
+    // The process's chat server metrics
+    public static ChatMetrics shared() {
+        return SHARED;
+    }
+
+    private ChatMetrics() {
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chat-metrics-sampler");
+            t.setDaemon(true);
+            return t;
+        });
+        sampler.scheduleAtFixedRate(this::sample, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public void bind(AdmissionController admission, ChatLogWriter chatLog) {
+        this.admission = admission;
+        this.chatLog = chatLog;
+    }
+
+    // A client message accepted for handling
+    public void onMessageIn() {
+        messagesIn.increment();
+    }
+
+    // Messages queued to clients: one response, or one broadcast to recipients clients
+    public void onMessagesOut(int recipients) {
+        messagesOut.add(recipients);
+    }
+
+    // How long queueing one broadcast to every recipient took
+    public void onFanOut(int recipients, long nanos) {
+        messagesOut.add(recipients);
+        fanOutNanos.record(nanos);
+    }
+
+    private synchronized void sample() {
+        int slot = samples % inSamples.length;
+        inSamples[slot] = messagesIn.sum();
+        outSamples[slot] = messagesOut.sum();
+        samples++;
+    }
+
+    private synchronized double rate(long[] ring) {
+        if (samples < 2) return 0;
+        int newest = (samples - 1) % ring.length;
+        int span = Math.min(samples - 1, RATE_WINDOW_SECONDS);
+        int oldest = (samples - 1 - span) % ring.length;
+        return (double) (ring[newest] - ring[oldest]) / span;
+    }
+
+    @Override
+    public int getConnectedClients() {
+        AdmissionController current = admission;
+        return current == null ? 0 : current.getConnectionCount();
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    @Override
+    public double getMessagesInPerSecond() {
+        return rate(inSamples);
+    }
+
+    @Override
+    public double getMessagesOutPerSecond() {
+        return rate(outSamples);
+    }
+
+    @Override
+    public long getFanOutP50Micros() {
+        return fanOutNanos.getValueAtPercentile(50) / 1000;
+    }
+
+    @Override
+    public long getFanOutP99Micros() {
+        return fanOutNanos.getValueAtPercentile(99) / 1000;
+    }
+
+    @Override
+    public long getFanOutP999Micros() {
+        return fanOutNanos.getValueAtPercentile(99.9) / 1000;
+    }
+
+    @Override
+    public long getFanOutMaxMicros() {
+        return fanOutNanos.getMax() / 1000;
+    }
+
+    @Override
+    public int getLogQueueDepth() {
+        ChatLogWriter current = chatLog;
+        return current == null ? 0 : current.getQueueDepth();
+    }
+
+    @Override
+    public long getLogDroppedCount() {
+        ChatLogWriter current = chatLog;
+        return current == null ? 0 : current.getDroppedCount();
+    }
+
+    @Override
+    public long getThrottledCount() {
+        AdmissionController current = admission;
+        return current == null ? 0 : current.getThrottledCount();
+    }
+
+    @Override
+    public long getRefusedCount() {
+        AdmissionController current = admission;
+        return current == null ? 0 : current.getRefusedCount();
+    }
+
+    // Prometheus text exposition format
+    public String render() {
+        StringBuilder out = new StringBuilder(2048);
+        gauge(out, "chat_connected_clients", "Clients connected now", getConnectedClients());
+        counter(out, "chat_messages_in_total", "Client messages accepted", getMessagesIn());
+        counter(out, "chat_messages_out_total", "Messages queued to clients", getMessagesOut());
+        gauge(out, "chat_messages_in_per_second", "Client messages accepted per second, last 10 s", getMessagesInPerSecond());
+        gauge(out, "chat_messages_out_per_second", "Messages queued to clients per second, last 10 s", getMessagesOutPerSecond());
+        out.append("# HELP chat_fanout_seconds Time to queue one broadcast to all recipients\n")
+                .append("# TYPE chat_fanout_seconds summary\n");
+        for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            out.append("chat_fanout_seconds{quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(fanOutNanos.getValueAtPercentile(quantile * 100))).append('\n');
+        }
+        out.append("chat_fanout_seconds_sum ").append(seconds((long) (fanOutNanos.getMean() * fanOutNanos.getCount()))).append('\n')
+                .append("chat_fanout_seconds_count ").append(fanOutNanos.getCount()).append('\n');
+        gauge(out, "chat_fanout_max_seconds", "Slowest broadcast fan-out", seconds(fanOutNanos.getMax()));
+        gauge(out, "chat_log_queue_depth", "Log lines waiting to be written", getLogQueueDepth());
+        counter(out, "chat_log_dropped_total", "Log lines dropped because the queue was full", getLogDroppedCount());
+        counter(out, "chat_throttled_total", "Client messages dropped for exceeding the client rate", getThrottledCount());
+        counter(out, "chat_refused_total", "Clients refused because the server was full", getRefusedCount());
+        return out.toString();
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, Object value) {
+        metric(out, name, help, "gauge", value);
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        metric(out, name, help, "counter", value);
+    }
+
+    private static void metric(StringBuilder out, String name, String help, String type, Object value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(' ').append(type).append('\n')
+                .append(name).append(' ').append(value).append('\n');
+    }
+}
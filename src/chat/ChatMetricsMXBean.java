@@ -0,0 +1,30 @@
+package chat;
+
+// What ChatMetrics shows over JMX (e.g. in JConsole), next to the HTTP endpoint
+public interface ChatMetricsMXBean {
+    int getConnectedClients();
+
+    long getMessagesIn();
+
+    long getMessagesOut();
+
+    double getMessagesInPerSecond();
+
+    double getMessagesOutPerSecond();
+
+    long getFanOutP50Micros();
+
+    long getFanOutP99Micros();
+
+    long getFanOutP999Micros();
+
+    long getFanOutMaxMicros();
+
+    int getLogQueueDepth();
+
+    long getLogDroppedCount();
+
+    long getThrottledCount();
+
+    long getRefusedCount();
+}
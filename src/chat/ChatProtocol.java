@@ -0,0 +1,11 @@
+package chat;
+
+// What a chat server does with a connection's lines, independent of how the bytes are moved.
+// Callbacks run on the connection's event-loop thread and must not block.
+public interface ChatProtocol {
+    void onConnect(ChatConnection connection);
+
+    void onLine(ChatConnection connection, String line);
+
+    void onDisconnect(ChatConnection connection);
+}
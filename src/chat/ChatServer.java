@@ -1,35 +1,153 @@
 package chat;
 
 import java.io.*;
-import java.net.*;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
 import java.util.Set;
 
 public class ChatServer {
     private static final int PORT = 12345;
-    private static Set<PrintWriter> clientWriters = new HashSet<>();
     private static final String CHAT_LOG_FILE = "chat_log.txt";
+    private static Set<PrintWriter> clientWriters = new HashSet<>();
+    private static volatile ChatLogWriter chatLog;
+    private static AdmissionController admission;
 
+    // Usage: ChatServer [--engine=nio|virtual|threads] [--protocol=system|broadcast] [--loops=N]
+    //                  [--log-fsync=never|batch|<millis>]
+    //                  [--max-connections=N] [--max-inbound=<bytes/s>] [--client-rate=<messages/s>]
+    //                  [--metrics-port=P] [--console=error|warn|info|debug] [--console-sample=N]
+    //   nio       - selector event loops (NioChatServer), the default
+    //   virtual   - one blocking ServerWorker per client on a virtual thread: no thread cap, small stacks
+    //   threads   - one blocking ServerWorker per client on a platform thread
+    //   system    - each message is acknowledged back to its sender (chat.ChatClient), the default
+    //   broadcast - first line is the client's name, messages go to everyone (org.example.myjavafx.ChatClient);
+    //               nio engine only
+    //   log-fsync - when chat_log.txt is forced to disk: never, after every written batch, or at most
+    //               every <millis> (default 1000)
+    //   max-connections - clients beyond this are told the server is full and disconnected (default 10000)
+    //   max-inbound     - all clients together; past it reads pause, pushing back through TCP (default 8 MB/s)
+    //   client-rate     - messages per second per client, bursts of twice that; excess messages are dropped
+    //                     and the client is told it is throttled (default 20)
+    //   metrics-port    - serve ChatMetrics at http://127.0.0.1:P/metrics; they are always available over JMX
+    //   console         - what is printed to the console (default info)
+    //   console-sample  - per-message console lines are printed for 1 in N messages (default 100)
     public static void main(String[] args) {
-        System.out.println("Chat server started on port " + PORT);
-        try (ServerSocket listener = new ServerSocket(PORT)) {
-            while (true) {
-                new ServerWorker(listener.accept(), clientWriters, CHAT_LOG_FILE).start();
+        String engine = "nio";
+        String fsync = "1000";
+        ChatProtocol protocol = new SystemChatProtocol();
+        int loops = Math.min(4, Runtime.getRuntime().availableProcessors());
+        int maxConnections = 10_000;
+        long maxInboundBytes = 8L * 1024 * 1024;
+        double clientRate = 20;
+        int metricsPort = 0;
+        String consoleLevel = "info";
+        int consoleSample = 100;
+        for (String arg : args) {
+            if (arg.startsWith("--engine=")) {
+                engine = arg.substring("--engine=".length());
+            } else if (arg.equals("--protocol=broadcast")) {
+                protocol = new BroadcastChatProtocol();
+            } else if (arg.equals("--protocol=system")) {
+                protocol = new SystemChatProtocol();
+            } else if (arg.startsWith("--log-fsync=")) {
+                fsync = arg.substring("--log-fsync=".length());
+            } else if (arg.startsWith("--loops=")) {
+                loops = Integer.parseInt(arg.substring("--loops=".length()));
+            } else if (arg.startsWith("--max-connections=")) {
+                maxConnections = Integer.parseInt(arg.substring("--max-connections=".length()));
+            } else if (arg.startsWith("--max-inbound=")) {
+                maxInboundBytes = Long.parseLong(arg.substring("--max-inbound=".length()));
+            } else if (arg.startsWith("--client-rate=")) {
+                clientRate = Double.parseDouble(arg.substring("--client-rate=".length()));
+            } else if (arg.startsWith("--metrics-port=")) {
+                metricsPort = Integer.parseInt(arg.substring("--metrics-port=".length()));
+            } else if (arg.startsWith("--console=")) {
+                consoleLevel = arg.substring("--console=".length());
+            } else if (arg.startsWith("--console-sample=")) {
+                consoleSample = Integer.parseInt(arg.substring("--console-sample=".length()));
+            } else {
+                System.err.println("Unknown option: " + arg);
+            }
+        }
+
+        if (protocol instanceof BroadcastChatProtocol && !engine.equals("nio")) {
+            // ServerWorker only speaks the system protocol; refuse rather than silently run it instead
+            System.err.println("--protocol=broadcast needs --engine=nio");
+            return;
+        }
+
+        admission = new AdmissionController(maxConnections, maxInboundBytes, clientRate);
+        ChatConsole.configure(consoleLevel, consoleSample);
+
+        ChatConsole.log(ChatConsole.Level.INFO, "Chat server started on port " + PORT + " (" + engine + ")");
+        try {
+            openLog(fsync);
+            ChatMetrics.shared().bind(admission, chatLog);
+            new MetricsEndpoint(ChatMetrics.shared(), metricsPort, "chat:type=ChatServer,port=" + PORT);
+            if (metricsPort > 0) ChatConsole.log(ChatConsole.Level.INFO, "Metrics at http://127.0.0.1:" + metricsPort + "/metrics");
+            switch (engine) {
+                case "nio":
+                    new NioChatServer(PORT, protocol, loops, admission).run();
+                    break;
+                case "virtual":
+                    runBlocking(Thread.ofVirtual().name("chat-client-", 1));
+                    break;
+                case "threads":
+                    runBlocking(Thread.ofPlatform().name("chat-client-", 1));
+                    break;
+                default:
+                    System.err.println("Unknown engine: " + engine);
             }
         } catch (IOException e) {
             System.err.println("Server error: " + e.getMessage());
         }
     }
 
-    public static void logMessage(String message) {
-        try (FileWriter fw = new FileWriter(CHAT_LOG_FILE, true);
-             BufferedWriter bw = new BufferedWriter(fw);
-             PrintWriter out = new PrintWriter(bw)) {
-            out.println(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()) + " - " + message);
+    // Thread-per-client serving with the system protocol; threads come from the given builder
+    private static void runBlocking(Thread.Builder threads) throws IOException {
+        try (ServerSocket listener = new ServerSocket(PORT, 1024)) {
+            while (true) {
+                Socket client = listener.accept();
+                if (!admission.tryAdmit()) {
+                    refuse(client);
+                    continue;
+                }
+                threads.start(new ServerWorker(client, clientWriters, CHAT_LOG_FILE, admission));
+            }
+        }
+    }
+
+    // Tells a client over the connection limit so, then hangs up. A fresh socket's send buffer takes
+    // one line without blocking.
+    private static void refuse(Socket client) {
+        try (client) {
+            client.getOutputStream().write((AdmissionController.SERVER_FULL_NOTICE + "\n").getBytes(StandardCharsets.UTF_8));
         } catch (IOException e) {
-            System.err.println("Error writing to chat log: " + e.getMessage());
+            System.err.println("Error refusing chat client: " + e.getMessage());
+        }
+    }
+
+    // Queued for the log writer thread; never blocks on disk I/O
+    public static void logMessage(String message) {
+        ChatLogWriter log = chatLog;
+        if (log != null) log.log(message);
+    }
+
+    // "never", "batch" or an fsync interval in milliseconds
+    private static void openLog(String fsync) throws IOException {
+        ChatLogWriter.FsyncPolicy policy = ChatLogWriter.FsyncPolicy.INTERVAL;
+        long intervalMillis = 1000;
+        if (fsync.equals("never")) {
+            policy = ChatLogWriter.FsyncPolicy.NEVER;
+        } else if (fsync.equals("batch")) {
+            policy = ChatLogWriter.FsyncPolicy.EVERY_BATCH;
+        } else {
+            intervalMillis = Long.parseLong(fsync);
         }
+        ChatLogWriter log = new ChatLogWriter(CHAT_LOG_FILE, policy, intervalMillis);
+        Runtime.getRuntime().addShutdownHook(new Thread(log::close, "chat-log-close"));
+        chatLog = log;
     }
 }
@@ -0,0 +1,53 @@
+package chat;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+// Publishes ChatMetrics as an MBean and, if a port is given, as Prometheus text on
+// http://127.0.0.1:<port>/metrics. The HTTP server listens on loopback only and answers on one thread.
+public class MetricsEndpoint implements AutoCloseable {
+    private final HttpServer http;
+    private final ObjectName name;
+
+    // port <= 0: JMX only
+    public MetricsEndpoint(ChatMetrics metrics, int port, String jmxName) throws IOException {
+        try {
+            this.name = new ObjectName(jmxName);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+        } catch (JMException e) {
+            throw new IOException("Cannot register chat metrics MBean: " + e.getMessage(), e);
+        }
+        if (port <= 0) {
+            http = null;
+            return;
+        }
+        http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.createContext("/metrics", exchange -> {
+            byte[] body = metrics.render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        http.start();
+    }
+
+    @Override
+    public void close() {
+        if (http != null) http.stop(0);
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            System.err.println("Error unregistering chat metrics MBean: " + e.getMessage());
+        }
+    }
+}
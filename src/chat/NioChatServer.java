@@ -0,0 +1,226 @@
+package chat;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+// Non-blocking chat server: the accepting thread hands each client to one of a few selector event loops,
+// so thousands of connections cost a ChatConnection each instead of a thread each.
+// What is said on the wire is left to the ChatProtocol; how much may be said is left to the AdmissionController.
+public class NioChatServer {
+    private final int port;
+    private final ChatProtocol protocol;
+    private final AdmissionController admission;
+    private final EventLoop[] loops;
+    private volatile ServerSocketChannel serverChannel;
+    private volatile boolean running;
+
+    public NioChatServer(int port, ChatProtocol protocol, int eventLoops, AdmissionController admission) {
+        this.port = port;
+        this.protocol = protocol;
+        this.admission = admission;
+        this.loops = new EventLoop[eventLoops];
+    }
+
+    // Accepts clients on the calling thread until stop() is called.
+    public void run() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        running = true;
+
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(Selector.open());
+            Thread t = new Thread(loops[i], "chat-loop-" + (i + 1));
+            t.setDaemon(true);
+            t.start();
+        }
+
+        int next = 0;
+        try {
+            while (running) {
+                SocketChannel client;
+                try {
+                    client = serverChannel.accept();
+                } catch (IOException e) {
+                    if (!running) break;
+                    System.err.println("Error accepting chat client: " + e.getMessage());
+                    continue;
+                }
+                if (!admission.tryAdmit()) {
+                    refuse(client);
+                    continue;
+                }
+                client.configureBlocking(false);
+                client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                EventLoop loop = loops[next];
+                next = (next + 1) % loops.length;
+                loop.register(new ChatConnection(client, loop, protocol, admission), client);
+            }
+        } finally {
+            stop();
+        }
+    }
+
+    // Still blocking here, and a fresh socket's send buffer takes one line without waiting
+    private static void refuse(SocketChannel client) {
+        try (client) {
+            client.write(ByteBuffer.wrap((AdmissionController.SERVER_FULL_NOTICE + "\n").getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            System.err.println("Error refusing chat client: " + e.getMessage());
+        }
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing server socket: " + e.getMessage());
+        }
+        for (EventLoop loop : loops) {
+            if (loop != null) loop.stop();
+        }
+    }
+
+    // One selector thread. Other threads hand it work through execute(), never by touching its keys.
+    static final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // Shared by all of this loop's connections; a connection keeps only its unfinished line
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(16 * 1024);
+        // Delayed tasks, e.g. resuming a throttled connection; only touched by this loop's thread
+        private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+        private volatile boolean running = true;
+
+        EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        // Runs a task on this loop after a delay. Only call from this loop's thread.
+        void schedule(long delayNanos, Runnable task) {
+            timers.add(new Timer(System.nanoTime() + delayNanos, task));
+        }
+
+        void register(ChatConnection connection, SocketChannel channel) {
+            execute(() -> {
+                try {
+                    connection.register(channel.register(selector, SelectionKey.OP_READ, connection));
+                } catch (IOException e) {
+                    connection.closeNow();
+                }
+            });
+        }
+
+        void stop() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    Timer first = timers.peek();
+                    if (first == null) {
+                        selector.select();
+                    } else {
+                        long waitMillis = TimeUnit.NANOSECONDS.toMillis(first.deadline - System.nanoTime());
+                        if (waitMillis > 0) {
+                            selector.select(waitMillis);
+                        } else {
+                            selector.selectNow();
+                        }
+                    }
+                    runDueTimers();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        runTask(task);
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        ChatConnection connection = (ChatConnection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isWritable()) connection.flush();
+                            if (key.isValid() && key.isReadable()) connection.onReadable(readBuffer);
+                        } catch (RuntimeException e) {
+                            // A bug handling one connection must not end the loop for all the others
+                            System.err.println("Chat connection error, closing it: " + e);
+                            closeQuietly(connection);
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (running) System.err.println("Chat event loop error: " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    closeQuietly((ChatConnection) key.attachment());
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing selector: " + e.getMessage());
+                }
+            }
+        }
+
+        private void runDueTimers() {
+            long now = System.nanoTime();
+            while (!timers.isEmpty() && timers.peek().deadline - now <= 0) {
+                runTask(timers.poll().task);
+            }
+        }
+
+        // Tasks and timers may be protocol callbacks; one that fails is logged and the loop carries on
+        private void runTask(Runnable task) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("Chat event loop task failed: " + e);
+            }
+        }
+
+        private void closeQuietly(ChatConnection connection) {
+            try {
+                connection.closeNow();
+            } catch (RuntimeException e) {
+                System.err.println("Error closing chat connection: " + e);
+            }
+        }
+    }
+
+    private static final class Timer implements Comparable<Timer> {
+        private final long deadline;
+        private final Runnable task;
+
+        private Timer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return Long.compare(deadline - other.deadline, 0);
+        }
+    }
+}
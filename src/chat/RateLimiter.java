@@ -0,0 +1,41 @@
+package chat;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Token bucket: on average permitsPerSecond, up to burst at once. The bucket is kept as the single
+// time at which it would be full again (the generic cell rate algorithm), so taking permits is one
+// CAS - no lock, no refill thread - and it is cheap enough to sit on every read.
+public class RateLimiter {
+    private final long nanosPerPermit;
+    private final long burstNanos;
+    // When the permits handed out so far will have been paid back; at or before now the bucket is full
+    private final AtomicLong paidUpTo = new AtomicLong(System.nanoTime());
+
+    // A rate of 0 or less means unlimited
+    public RateLimiter(double permitsPerSecond, double burst) {
+        this.nanosPerPermit = permitsPerSecond > 0 ? (long) (1_000_000_000L / permitsPerSecond) : 0;
+        this.burstNanos = (long) (Math.max(1, burst) * nanosPerPermit);
+    }
+
+    // Takes the permits if the bucket holds them; otherwise takes nothing and returns false
+    public boolean tryAcquire(long permits) {
+        while (true) {
+            long now = System.nanoTime();
+            long paid = paidUpTo.get();
+            long next = Math.max(paid, now) + permits * nanosPerPermit;
+            if (next - now > burstNanos) return false;
+            if (paidUpTo.compareAndSet(paid, next)) return true;
+        }
+    }
+
+    // Takes the permits even if the bucket is short, e.g. for bytes already read.
+    // Returns how long the caller should pause (in nanos) to get back within the rate; 0 if not at all.
+    public long reserve(long permits) {
+        while (true) {
+            long now = System.nanoTime();
+            long paid = paidUpTo.get();
+            long next = Math.max(paid, now) + permits * nanosPerPermit;
+            if (paidUpTo.compareAndSet(paid, next)) return Math.max(0, next - now - burstNanos);
+        }
+    }
+}
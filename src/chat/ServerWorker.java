@@ -3,25 +3,42 @@ package chat;
 import java.io.*;
 import java.net.Socket;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Blocking handler for one client, run on a platform or a virtual thread (see ChatServer --engine)
+public class ServerWorker implements Runnable {
+    private static final int STREAM_BUFFER_CHARS = 512;
 
-public class ServerWorker extends Thread {
     private Socket clientSocket;
     private Set<PrintWriter> clientWriters;
     private BufferedReader in;
     private PrintWriter out;
     private String chatLogFile;
+    private final AdmissionController admission;
+    private final RateLimiter messageLimiter;
+    private boolean throttled; // Told the client it is throttled, and it has not slowed down since
 
-    public ServerWorker(Socket clientSocket, Set<PrintWriter> clientWriters, String chatLogFile) {
+    // The client has already been admitted; the worker releases it when done
+    public ServerWorker(Socket clientSocket, Set<PrintWriter> clientWriters, String chatLogFile,
+                        AdmissionController admission) {
         this.clientSocket = clientSocket;
         this.clientWriters = clientWriters;
         this.chatLogFile = chatLogFile;
+        this.admission = admission;
+        this.messageLimiter = admission.newClientLimiter();
     }
 
     @Override
     public void run() {
         try {
-            in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            out = new PrintWriter(clientSocket.getOutputStream(), true);
+            // Small buffers: with thousands of mostly idle clients the default 8K-char buffers dominate memory
+            BufferedInputStream input = new BufferedInputStream(clientSocket.getInputStream(), STREAM_BUFFER_CHARS);
+            if (ChatFrame.readMagic(input)) {
+                serveFrames(new DataInputStream(input));
+                return;
+            }
+            in = new BufferedReader(new InputStreamReader(input), STREAM_BUFFER_CHARS);
+            out = new PrintWriter(new OutputStreamWriter(clientSocket.getOutputStream()), true);
 
             // Add new client's writer to the set
             synchronized (clientWriters) {
@@ -30,13 +47,15 @@ public class ServerWorker extends Thread {
 
             String clientMessage;
             while ((clientMessage = in.readLine()) != null) {
-                System.out.println("Received: " + clientMessage);
-                ChatServer.logMessage("Client: " + clientMessage);
-                // For a simple system-chat, the server can "respond"
-                // In a multi-user chat, you would broadcast to all clientWriters
-                String serverResponse = "System received your message: \"" + clientMessage + "\"";
-                out.println(serverResponse); // Send response back to the client
-                ChatServer.logMessage("System: " + serverResponse);
+                pauseForInbound(clientMessage.length() + 1);
+                if (!messageLimiter.tryAcquire(1)) {
+                    admission.onThrottled();
+                    if (!throttled) out.println(AdmissionController.THROTTLED_NOTICE); // Once, not per dropped line
+                    throttled = true;
+                    continue;
+                }
+                throttled = false;
+                out.println(respond(clientMessage)); // Send response back to the client
             }
 
         } catch (IOException e) {
@@ -52,6 +71,65 @@ public class ServerWorker extends Thread {
             } catch (IOException e) {
                 System.err.println("Error closing client socket: " + e.getMessage());
             }
+            admission.release();
+        }
+    }
+
+    // The binary ChatFrame protocol: each MESSAGE gets its response, then an ACK of its id
+    private void serveFrames(DataInputStream input) throws IOException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(clientSocket.getOutputStream(), STREAM_BUFFER_CHARS * 2));
+        output.write(ChatFrame.MAGIC);
+        output.flush();
+
+        long responseId = 0;
+        ChatFrame frame;
+        while ((frame = ChatFrame.read(input)) != null) {
+            pauseForInbound(4 + ChatFrame.HEADER_BYTES + frame.getPayload().length());
+            switch (frame.getType()) {
+                case ChatFrame.HELLO:
+                case ChatFrame.MESSAGE:
+                    if (!messageLimiter.tryAcquire(1)) {
+                        // Every dropped frame is named, so the client can stop waiting for its ACK
+                        admission.onThrottled();
+                        output.write(ChatFrame.encode(ChatFrame.THROTTLE, frame.getId(), AdmissionController.THROTTLED_NOTICE));
+                        break;
+                    }
+                    output.write(ChatFrame.encode(ChatFrame.MESSAGE, ++responseId, respond(frame.getPayload())));
+                    if (frame.getId() != 0) output.write(ChatFrame.encode(ChatFrame.ACK, frame.getId(), null));
+                    break;
+                case ChatFrame.HEARTBEAT:
+                    output.write(ChatFrame.encode(ChatFrame.HEARTBEAT, frame.getId(), null));
+                    break;
+                default:
+                    break;
+            }
+            // Pipelined frames already buffered are answered together in one write
+            if (input.available() == 0) output.flush();
         }
     }
+
+    // Stops reading from this client while all clients together are over the inbound byte limit;
+    // the unread bytes fill the socket buffers and slow the sender down
+    private void pauseForInbound(int bytes) throws IOException {
+        long pause = admission.onBytesRead(bytes);
+        if (pause <= 0) return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(pause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled");
+        }
+    }
+
+    private String respond(String clientMessage) {
+        ChatMetrics.shared().onMessageIn();
+        ChatMetrics.shared().onMessagesOut(1);
+        ChatConsole.sampled(ChatConsole.Level.INFO, () -> "Received: " + clientMessage);
+        ChatServer.logMessage("Client: " + clientMessage);
+        // For a simple system-chat, the server can "respond"
+        // In a multi-user chat, you would broadcast to all clientWriters
+        String serverResponse = ChatFrame.fitPayload("System received your message: \"" + clientMessage + "\"");
+        ChatServer.logMessage("System: " + serverResponse);
+        return serverResponse;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,22 @@
+package chat;
+
+// The desk's "chat with System" protocol (chat.ChatClient): every line is logged and acknowledged back to its sender.
+public class SystemChatProtocol implements ChatProtocol {
+    @Override
+    public void onConnect(ChatConnection connection) {
+    }
+
+    @Override
+    public void onLine(ChatConnection connection, String line) {
+        ChatServer.logMessage("Client: " + line);
+        ChatConsole.sampled(ChatConsole.Level.INFO, () -> "Received: " + line);
+        String serverResponse = ChatFrame.fitPayload("System received your message: \"" + line + "\"");
+        connection.send(serverResponse);
+        ChatMetrics.shared().onMessagesOut(1);
+        ChatServer.logMessage("System: " + serverResponse);
+    }
+
+    @Override
+    public void onDisconnect(ChatConnection connection) {
+    }
+}
@@ -1,6 +1,7 @@
 package constants;
 
 import java.awt.*;
+import java.util.Map;
 
 public class CommonConstants {
     // color hex values
@@ -11,7 +12,10 @@ public class CommonConstants {
     // mysql credentials
 
     // place the url of your db in this format -> jdbc:mysql:ip_address/schema-name
-    public static final String DB_URL = "jdbc:mysql://127.0.0.1:3306/login_schema";
+    // useServerPrepStmts/cachePrepStmts make the driver keep server-side prepared statements, so hot SQL is parsed once;
+    // rewriteBatchedStatements turns JDBC batches into multi-row statements
+    public static final String DB_URL = "jdbc:mysql://127.0.0.1:3306/login_schema"
+            + "?useServerPrepStmts=true&cachePrepStmts=true&rewriteBatchedStatements=true";
     // place the username that you made here (might be different)
     public static final String DB_USERNAME = "root";
     // place the password that you made here (might be different)
@@ -19,4 +23,49 @@ public class CommonConstants {
 
     // IMPORTANT: Changed to lowercase 'users' to match your SQL schema for case sensitivity
     public static final String DB_USERS_TABLE_NAME = "users";
+
+    // connection pool settings
+    public static final int DB_POOL_MAX_SIZE = 10;
+    public static final int DB_POOL_MIN_IDLE = 2;
+    // how long a caller waits for a free connection before giving up
+    public static final long DB_POOL_MAX_WAIT_MS = 5_000;
+    // idle connections older than this are closed (down to DB_POOL_MIN_IDLE)
+    public static final long DB_POOL_IDLE_TIMEOUT_MS = 5 * 60_000;
+    // a connection held longer than this is reported as a possible leak
+    public static final long DB_POOL_LEAK_THRESHOLD_MS = 30_000;
+    // idle connections are pinged on borrow once they have been idle this long
+    public static final long DB_POOL_VALIDATION_INTERVAL_MS = 5_000;
+
+    // prepared statements kept open per pooled connection, keyed by SQL text
+    public static final int DB_STATEMENT_CACHE_SIZE = 64;
+    // optional per-table caps inside that budget (table name -> max cached statements)
+    public static final Map<String, Integer> DB_STATEMENT_CACHE_TABLE_LIMITS = Map.of(
+            "items", 16,
+            "sales", 16,
+            "payments", 8,
+            "payment_outbox", 4,
+            "users", 4
+    );
+
+    // in-memory item catalogue cache (db.ItemCache)
+    public static final int ITEM_CACHE_MAX_SIZE = 500_000;
+    // entries older than this are re-read from the database
+    public static final long ITEM_CACHE_TTL_MS = 10 * 60_000;
+
+    // payment receipts (receipts.ReceiptService): PDFs go to this directory, rendered by this many
+    // background threads; past the queue capacity new receipts are refused instead of blocking the payment
+    public static final String RECEIPT_DIRECTORY = "receipts";
+    public static final int RECEIPT_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    public static final int RECEIPT_QUEUE_CAPACITY = 10_000;
+
+    // payment history (guis.PaymentHistoryModel): rows fetched per page, and users whose fetched history
+    // is kept in memory between openings of the payment window
+    public static final int PAYMENT_HISTORY_PAGE_SIZE = 50;
+    public static final int PAYMENT_HISTORY_CACHED_USERS = 64;
+
+    // payment outbox (db.PaymentOutbox): events delivered per poll, how often to poll when idle,
+    // and the longest wait between retries of a failing event
+    public static final int OUTBOX_BATCH_SIZE = 200;
+    public static final long OUTBOX_POLL_INTERVAL_MS = 1_000;
+    public static final long OUTBOX_MAX_BACKOFF_MS = 5 * 60_000;
 }
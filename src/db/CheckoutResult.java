@@ -0,0 +1,35 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Outcome of a multi-line checkout. The basket is all-or-nothing:
+// either every line was sold, or nothing was and the refused lines say why.
+public class CheckoutResult {
+    private final boolean committed;
+    private final List<SaleResult> lines;
+
+    CheckoutResult(boolean committed, List<SaleResult> lines) {
+        this.committed = committed;
+        this.lines = Collections.unmodifiableList(lines);
+    }
+
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    // One result per basket line, in basket order
+    public List<SaleResult> getLines() {
+        return lines;
+    }
+
+    // Lines that stopped the checkout; empty when committed
+    public List<SaleResult> getRefusedLines() {
+        List<SaleResult> refused = new ArrayList<>();
+        for (SaleResult line : lines) {
+            if (!line.isSold()) refused.add(line);
+        }
+        return refused;
+    }
+}
@@ -0,0 +1,392 @@
+package db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// A small bounded JDBC connection pool.
+// Callers get a proxy Connection whose close() hands the physical connection back to the pool
+// instead of tearing down the TCP/MySQL session, so existing try-with-resources code keeps working.
+public class ConnectionPool {
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int maxSize;
+    private final int minIdle;
+    private final long maxWaitMillis;
+    private final long idleTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final long validationIntervalMillis;
+    private final int statementCacheSize;
+    private final Map<String, Integer> statementCacheTableLimits;
+
+    // Permits bound the number of physical connections handed out at once
+    private final Semaphore permits;
+    // Idle physical connections, most recently returned first (guarded by "this")
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    // Connections currently lent out, watched by the leak detector
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    // Metrics
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder leakCount = new LongAdder();
+
+    public ConnectionPool(String url, String username, String password, int maxSize, int minIdle,
+                          long maxWaitMillis, long idleTimeoutMillis, long leakThresholdMillis,
+                          long validationIntervalMillis, int statementCacheSize,
+                          Map<String, Integer> statementCacheTableLimits) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be positive");
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.minIdle = Math.min(minIdle, maxSize);
+        this.maxWaitMillis = maxWaitMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.statementCacheTableLimits = statementCacheTableLimits;
+        this.permits = new Semaphore(maxSize, true);
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1_000, Math.min(idleTimeoutMillis, leakThresholdMillis) / 2);
+        housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // Borrows a connection, waiting up to maxWaitMillis for a free slot.
+    public Connection borrow() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is closed");
+
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.increment();
+                throw new SQLTimeoutException("Timed out after " + maxWaitMillis + " ms waiting for a database connection ("
+                        + getActiveCount() + " active)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        waitNanos.add(System.nanoTime() - start);
+        borrowCount.increment();
+
+        try {
+            PooledConnection pooled = takeValidIdle();
+            if (pooled == null) {
+                pooled = new PooledConnection(openPhysical());
+            }
+            pooled.borrowedAt = System.currentTimeMillis();
+            pooled.borrowSite = new Throwable("Connection borrowed here");
+            pooled.leakReported = false;
+            borrowed.add(pooled);
+            return pooled.newHandle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    // Pops idle connections until one passes validation; stale ones are discarded.
+    private PooledConnection takeValidIdle() {
+        while (true) {
+            PooledConnection candidate;
+            synchronized (this) {
+                candidate = idle.pollFirst();
+            }
+            if (candidate == null) return null;
+
+            // Skip the ping for connections that were in use a moment ago
+            long idleFor = System.currentTimeMillis() - candidate.lastReturnedAt;
+            if (idleFor < validationIntervalMillis) return candidate;
+            try {
+                if (candidate.physical.isValid(2)) return candidate;
+            } catch (SQLException ignored) {
+                // treated as invalid below
+            }
+            evictedCount.increment();
+            destroy(candidate);
+        }
+    }
+
+    private Connection openPhysical() throws SQLException {
+        Connection connection = DriverManager.getConnection(url, username, password);
+        createdCount.increment();
+        return connection;
+    }
+
+    // Called by the proxy on close(): resets session state and puts the connection back.
+    private void giveBack(PooledConnection pooled) {
+        borrowed.remove(pooled);
+        pooled.statementCache.releaseAll();
+        pooled.closeTrackedStatements();
+        boolean reusable = !closed;
+        try {
+            if (reusable && pooled.physical.isClosed()) {
+                reusable = false;
+            } else if (reusable && !pooled.physical.getAutoCommit()) {
+                // Never hand an open transaction to the next caller
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            reusable = false;
+        }
+
+        if (reusable) {
+            pooled.lastReturnedAt = System.currentTimeMillis();
+            synchronized (this) {
+                idle.addFirst(pooled);
+            }
+        } else {
+            destroy(pooled);
+        }
+        permits.release();
+    }
+
+    // Evicts connections idle for too long and reports connections held past the leak threshold.
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+        List<PooledConnection> expired = new ArrayList<>();
+        synchronized (this) {
+            // Oldest idle connections sit at the tail of the deque
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext() && idle.size() > minIdle) {
+                PooledConnection candidate = it.next();
+                if (now - candidate.lastReturnedAt > idleTimeoutMillis) {
+                    it.remove();
+                    expired.add(candidate);
+                }
+            }
+        }
+        for (PooledConnection pooled : expired) {
+            evictedCount.increment();
+            destroy(pooled);
+        }
+
+        for (PooledConnection pooled : borrowed) {
+            if (!pooled.leakReported && now - pooled.borrowedAt > leakThresholdMillis) {
+                pooled.leakReported = true;
+                leakCount.increment();
+                System.err.println("Possible connection leak: connection held for " + (now - pooled.borrowedAt) + " ms");
+                pooled.borrowSite.printStackTrace();
+            }
+        }
+    }
+
+    // Closes every idle connection and refuses further borrows. Borrowed connections are closed when returned.
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        List<PooledConnection> toClose;
+        synchronized (this) {
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+        }
+        for (PooledConnection pooled : toClose) {
+            destroy(pooled);
+        }
+    }
+
+    private static void destroy(PooledConnection pooled) {
+        pooled.statementCache.closeAll();
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing pooled connection: " + e.getMessage());
+        }
+    }
+
+    // --- Metrics ---
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.sum();
+    }
+
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos.sum());
+    }
+
+    public double getAverageWaitMillis() {
+        long borrows = borrowCount.sum();
+        return borrows == 0 ? 0.0 : waitNanos.sum() / 1_000_000.0 / borrows;
+    }
+
+    public long getCreatedCount() {
+        return createdCount.sum();
+    }
+
+    public long getEvictedCount() {
+        return evictedCount.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    public long getLeakCount() {
+        return leakCount.sum();
+    }
+
+    public long getStatementCacheHits() {
+        return StatementCache.getHitCount();
+    }
+
+    public long getStatementCacheMisses() {
+        return StatementCache.getMissCount();
+    }
+
+    public double getStatementCacheHitRatio() {
+        long hits = getStatementCacheHits();
+        long total = hits + getStatementCacheMisses();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    public String describeStats() {
+        return String.format("active=%d idle=%d max=%d borrows=%d avgWait=%.2fms created=%d evicted=%d timeouts=%d leaks=%d"
+                        + " stmtHits=%d stmtMisses=%d stmtEvictions=%d",
+                getActiveCount(), getIdleCount(), maxSize, getBorrowCount(), getAverageWaitMillis(),
+                getCreatedCount(), getEvictedCount(), getTimeoutCount(), getLeakCount(),
+                getStatementCacheHits(), getStatementCacheMisses(), StatementCache.getEvictionCount());
+    }
+
+    // One physical connection plus the bookkeeping the pool needs for it.
+    private final class PooledConnection {
+        private final Connection physical;
+        private final StatementCache statementCache;
+        private final List<Statement> openStatements = new ArrayList<>();
+        private volatile long borrowedAt;
+        private volatile long lastReturnedAt = System.currentTimeMillis();
+        private volatile Throwable borrowSite;
+        private volatile boolean leakReported;
+
+        private PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.statementCache = new StatementCache(physical, statementCacheSize, statementCacheTableLimits);
+        }
+
+        private Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(
+                    ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    new Handle(this));
+        }
+
+        // Callers rarely close their statements, so close whatever they left open
+        private void closeTrackedStatements() {
+            synchronized (openStatements) {
+                for (Statement statement : openStatements) {
+                    try {
+                        statement.close();
+                    } catch (SQLException ignored) {
+                        // the connection is validated again on the next borrow
+                    }
+                }
+                openStatements.clear();
+            }
+        }
+
+        private void track(Object statement) {
+            synchronized (openStatements) {
+                openStatements.add((Statement) statement);
+            }
+        }
+    }
+
+    // Per-borrow view of a pooled connection. Once closed, the handle is dead even if the
+    // physical connection has since been lent to someone else.
+    private final class Handle implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean returned;
+
+        private Handle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    synchronized (this) {
+                        if (returned) return null;
+                        returned = true;
+                    }
+                    giveBack(pooled);
+                    return null;
+                case "isClosed":
+                    synchronized (this) {
+                        return returned || pooled.physical.isClosed();
+                    }
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + pooled.physical;
+                default:
+                    break;
+            }
+
+            synchronized (this) {
+                if (returned) throw new SQLException("Connection has already been returned to the pool");
+            }
+            // Plain prepareStatement(sql) is served from the per-connection statement cache
+            if (name.equals("prepareStatement") && args.length == 1) {
+                PreparedStatement cached = pooled.statementCache.checkout((String) args[0]);
+                if (cached != null) return cached;
+            }
+            try {
+                Object result = method.invoke(pooled.physical, args);
+                if (result instanceof Statement) {
+                    pooled.track(result);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
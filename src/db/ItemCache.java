@@ -0,0 +1,374 @@
+package db;
+
+import constants.CommonConstants;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// Write-through cache of the item catalogue (id -> name, quantity, price).
+// Filled from the dashboard's full catalogue load, kept current by routing item inserts,
+// edits and deletes through insert/update/delete below, and invalidated per item by sales.
+// Entries expire after a TTL; past the size limit an approximately least-recently-used entry
+// is evicted. Every change is mirrored into the shared ItemSearchIndex.
+public class ItemCache {
+    private static final ItemCache SHARED = new ItemCache(
+            CommonConstants.ITEM_CACHE_MAX_SIZE,
+            CommonConstants.ITEM_CACHE_TTL_MS
+    );
+
+    // How many random entries are compared when choosing one to evict
+    private static final int EVICTION_SAMPLES = 8;
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final IntMap entries = new IntMap();
+    private final ItemSearchIndex searchIndex = ItemSearchIndex.shared();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ItemCache(int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public static ItemCache shared() {
+        return SHARED;
+    }
+
+    // Cached snapshot of one items row
+    public static final class Item {
+        private final int id;
+        private final String name;
+        private final int quantity;
+        private final double price;
+        private final long loadedAt;
+        private volatile long lastAccess;
+
+        Item(int id, String name, int quantity, double price) {
+            this.id = id;
+            this.name = name;
+            this.quantity = quantity;
+            this.price = price;
+            this.loadedAt = System.currentTimeMillis();
+            this.lastAccess = loadedAt;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        public double getPrice() {
+            return price;
+        }
+    }
+
+    // --- Reads ---
+
+    // Returns the item if it is cached and fresh, without touching the database.
+    public Item getIfPresent(int itemId) {
+        Item item;
+        synchronized (this) {
+            item = entries.get(itemId);
+            if (item != null && isExpired(item)) {
+                entries.remove(itemId);
+                item = null;
+            }
+        }
+        if (item == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        item.lastAccess = System.currentTimeMillis();
+        return item;
+    }
+
+    // Returns the item, reading it from the database on a miss. Null if it does not exist.
+    public Item get(int itemId) throws SQLException {
+        Item item = getIfPresent(itemId);
+        if (item != null) return item;
+
+        try (Connection connection = MyJDBC.getConnection();
+             PreparedStatement ps = connection.prepareStatement("SELECT id, item_name, quantity, price FROM items WHERE id = ?")) {
+            ps.setInt(1, itemId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return null;
+                return put(rs.getInt("id"), rs.getString("item_name"), rs.getInt("quantity"), rs.getDouble("price"));
+            }
+        }
+    }
+
+    // Reads the whole catalogue once, replacing the cache contents and rebuilding the search index.
+    // Returns the items in id order.
+    public List<Item> loadAll() throws SQLException {
+        List<Item> items = new ArrayList<>();
+        try (Connection connection = MyJDBC.getConnection();
+             PreparedStatement ps = connection.prepareStatement("SELECT id, item_name, quantity, price FROM items ORDER BY id");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                items.add(new Item(rs.getInt("id"), rs.getString("item_name"), rs.getInt("quantity"), rs.getDouble("price")));
+            }
+        }
+
+        Map<Integer, String> names = new HashMap<>(items.size() * 2);
+        synchronized (this) {
+            entries.clear();
+            for (Item item : items) {
+                entries.put(item.id, item);
+                names.put(item.id, item.name);
+                if (entries.size() > maxSize) evictOne();
+            }
+        }
+        searchIndex.rebuild(names);
+        return items;
+    }
+
+    // --- Filling from reads done elsewhere ---
+
+    public Item put(int itemId, String name, int quantity, double price) {
+        Item item = new Item(itemId, name, quantity, price);
+        synchronized (this) {
+            entries.put(itemId, item);
+            if (entries.size() > maxSize) evictOne();
+        }
+        searchIndex.put(itemId, name);
+        return item;
+    }
+
+    // Drops a stale entry (e.g. after a sale changed its stock); the item still exists and stays searchable.
+    public synchronized void invalidate(int itemId) {
+        entries.remove(itemId);
+    }
+
+    public void invalidateAll(List<Integer> itemIds) {
+        for (int itemId : itemIds) {
+            invalidate(itemId);
+        }
+    }
+
+    // The item is gone from the database.
+    public void remove(int itemId) {
+        synchronized (this) {
+            entries.remove(itemId);
+        }
+        searchIndex.remove(itemId);
+    }
+
+    // --- Write-through ---
+
+    // Inserts a new item and caches it. Returns the generated id.
+    public int insert(String name, int quantity, double price) throws SQLException {
+        try (Connection connection = MyJDBC.getConnection();
+             PreparedStatement ps = connection.prepareStatement(
+                     "INSERT INTO items (item_name, quantity, price) VALUES (?, ?, ?)", Statement.RETURN_GENERATED_KEYS)) {
+            ps.setString(1, name);
+            ps.setInt(2, quantity);
+            ps.setDouble(3, price);
+            ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                if (!keys.next()) throw new SQLException("No id generated for new item");
+                int itemId = keys.getInt(1);
+                put(itemId, name, quantity, price);
+                return itemId;
+            }
+        }
+    }
+
+    // Updates an item and its cache entry. Returns false if the item does not exist.
+    public boolean update(int itemId, String name, int quantity, double price) throws SQLException {
+        try (Connection connection = MyJDBC.getConnection();
+             PreparedStatement ps = connection.prepareStatement("UPDATE items SET item_name=?, quantity=?, price=? WHERE id=?")) {
+            ps.setString(1, name);
+            ps.setInt(2, quantity);
+            ps.setDouble(3, price);
+            ps.setInt(4, itemId);
+            if (ps.executeUpdate() == 0) {
+                remove(itemId);
+                return false;
+            }
+        }
+        put(itemId, name, quantity, price);
+        return true;
+    }
+
+    // Deletes an item, taking its cascaded sales out of the running totals in the same transaction.
+    // Returns false if the item does not exist.
+    public boolean delete(int itemId) throws SQLException {
+        try (Connection connection = MyJDBC.getConnection()) {
+            connection.setAutoCommit(false);
+            SalesEngine.subtractItemSales(connection, itemId);
+            try (PreparedStatement ps = connection.prepareStatement("DELETE FROM items WHERE id=?")) {
+                ps.setInt(1, itemId);
+                if (ps.executeUpdate() == 0) {
+                    connection.rollback();
+                    return false;
+                }
+            }
+            connection.commit();
+        }
+        remove(itemId);
+        return true;
+    }
+
+    // --- Metrics ---
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    public String describeStats() {
+        return String.format("size=%d hits=%d misses=%d hitRatio=%.3f evictions=%d",
+                size(), getHitCount(), getMissCount(), getHitRatio(), getEvictionCount());
+    }
+
+    private boolean isExpired(Item item) {
+        return ttlMillis > 0 && System.currentTimeMillis() - item.loadedAt > ttlMillis;
+    }
+
+    // Sampled LRU: of a few random entries, drop the one used least recently (expired ones first)
+    private void evictOne() {
+        Item victim = null;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < EVICTION_SAMPLES; i++) {
+            Item candidate = entries.randomValue(random);
+            if (candidate == null) break;
+            if (isExpired(candidate)) {
+                victim = candidate;
+                break;
+            }
+            if (victim == null || candidate.lastAccess < victim.lastAccess) victim = candidate;
+        }
+        if (victim != null) {
+            entries.remove(victim.id);
+            evictions.increment();
+        }
+    }
+
+    // Open-addressing map from primitive int keys to items: no Integer boxing, no per-entry node objects.
+    private static final class IntMap {
+        private int[] keys = new int[16];
+        private Item[] values = new Item[16];
+        private int size;
+
+        Item get(int key) {
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) return values[slot];
+            }
+            return null;
+        }
+
+        void put(int key, Item value) {
+            if ((size + 1) * 4 > keys.length * 3) grow();
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (values[slot] != null) {
+                if (keys[slot] == key) {
+                    values[slot] = value;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            size++;
+        }
+
+        void remove(int key) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (values[slot] != null && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (values[slot] == null) return;
+
+            // Backward-shift deletion keeps probe chains intact without tombstones
+            values[slot] = null;
+            size--;
+            int hole = slot;
+            for (int next = (hole + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+                int home = hash(keys[next]) & mask;
+                boolean movable = hole <= next ? (home <= hole || home > next) : (home <= hole && home > next);
+                if (movable) {
+                    keys[hole] = keys[next];
+                    values[hole] = values[next];
+                    values[next] = null;
+                    hole = next;
+                }
+            }
+        }
+
+        Item randomValue(ThreadLocalRandom random) {
+            if (size == 0) return null;
+            int mask = keys.length - 1;
+            int slot = random.nextInt(keys.length);
+            while (values[slot] == null) {
+                slot = (slot + 1) & mask;
+            }
+            return values[slot];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            keys = new int[16];
+            values = new Item[16];
+            size = 0;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            Item[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new Item[oldValues.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) put(oldKeys[i], oldValues[i]);
+            }
+        }
+
+        private static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
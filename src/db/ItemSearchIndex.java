@@ -0,0 +1,225 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// In-memory trigram index over item names, used instead of "item_name LIKE '%kw%'",
+// which cannot use an index and scans the whole items table.
+// A query's rarest trigram narrows the candidates, each candidate is checked with a plain
+// substring test, and matches come back ranked: exact name, then name prefix, then word prefix,
+// then anywhere in the name. Safe for concurrent readers and writers.
+public class ItemSearchIndex {
+    public static final int DEFAULT_LIMIT = 200;
+
+    private static final ItemSearchIndex SHARED = new ItemSearchIndex();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // id -> lower-cased name
+    private final Map<Integer, String> names = new HashMap<>();
+    // packed trigram -> ids of names containing it
+    private final Map<Long, IntList> postings = new HashMap<>();
+    private volatile boolean ready;
+
+    // Index shared by the GUI windows
+    public static ItemSearchIndex shared() {
+        return SHARED;
+    }
+
+    // True once the index has been filled from the full catalogue
+    public boolean isReady() {
+        return ready;
+    }
+
+    // Replaces the whole index with the given catalogue (id -> name).
+    public void rebuild(Map<Integer, String> catalogue) {
+        lock.writeLock().lock();
+        try {
+            names.clear();
+            postings.clear();
+            for (Map.Entry<Integer, String> entry : catalogue.entrySet()) {
+                addLocked(entry.getKey(), normalize(entry.getValue()));
+            }
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Adds an item or re-indexes it under a new name.
+    public void put(int itemId, String name) {
+        String normalized = normalize(name);
+        lock.writeLock().lock();
+        try {
+            String previous = names.get(itemId);
+            if (normalized.equals(previous)) return;
+            if (previous != null) removeLocked(itemId, previous);
+            addLocked(itemId, normalized);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int itemId) {
+        lock.writeLock().lock();
+        try {
+            String previous = names.get(itemId);
+            if (previous != null) removeLocked(itemId, previous);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Returns up to limit item ids whose name contains query, best match first.
+    public List<Integer> search(String query, int limit) {
+        String q = normalize(query);
+        List<Match> matches = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            if (q.isEmpty()) return new ArrayList<>();
+            if (q.length() < 3) {
+                // Too short for a trigram: check every name, still cheap for a few hundred thousand
+                for (Map.Entry<Integer, String> entry : names.entrySet()) {
+                    addIfMatches(matches, entry.getKey(), entry.getValue(), q);
+                }
+            } else {
+                for (int itemId : rarestPosting(q)) {
+                    addIfMatches(matches, itemId, names.get(itemId), q);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        matches.sort(Comparator.comparingInt((Match m) -> m.rank)
+                .thenComparingInt(m -> m.name.length())
+                .thenComparing(m -> m.name)
+                .thenComparingInt(m -> m.itemId));
+        List<Integer> ids = new ArrayList<>(Math.min(limit, matches.size()));
+        for (int i = 0; i < matches.size() && i < limit; i++) {
+            ids.add(matches.get(i).itemId);
+        }
+        return ids;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return names.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int[] rarestPosting(String q) {
+        IntList rarest = null;
+        for (int i = 0; i + 3 <= q.length(); i++) {
+            IntList posting = postings.get(trigram(q, i));
+            if (posting == null) return new int[0]; // some trigram occurs nowhere
+            if (rarest == null || posting.size < rarest.size) rarest = posting;
+        }
+        return rarest.toArray();
+    }
+
+    private static void addIfMatches(List<Match> matches, int itemId, String name, String q) {
+        int at = name.indexOf(q);
+        if (at < 0) return;
+        int rank;
+        if (name.equals(q)) {
+            rank = 0;
+        } else if (at == 0) {
+            rank = 1;
+        } else if (isWordStart(name, q)) {
+            rank = 2;
+        } else {
+            rank = 3;
+        }
+        matches.add(new Match(itemId, name, rank));
+    }
+
+    private static boolean isWordStart(String name, String q) {
+        for (int at = name.indexOf(q); at >= 0; at = name.indexOf(q, at + 1)) {
+            if (at == 0 || !Character.isLetterOrDigit(name.charAt(at - 1))) return true;
+        }
+        return false;
+    }
+
+    private void addLocked(int itemId, String name) {
+        names.put(itemId, name);
+        for (long gram : trigrams(name)) {
+            postings.computeIfAbsent(gram, k -> new IntList()).add(itemId);
+        }
+    }
+
+    private void removeLocked(int itemId, String name) {
+        names.remove(itemId);
+        for (long gram : trigrams(name)) {
+            IntList posting = postings.get(gram);
+            if (posting == null) continue;
+            posting.remove(itemId);
+            if (posting.size == 0) postings.remove(gram);
+        }
+    }
+
+    // Distinct trigrams, so a repeated trigram doesn't list the same id twice
+    private static Set<Long> trigrams(String name) {
+        Set<Long> grams = new HashSet<>();
+        for (int i = 0; i + 3 <= name.length(); i++) {
+            grams.add(trigram(name, i));
+        }
+        return grams;
+    }
+
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    private static String normalize(String s) {
+        return s == null ? "" : s.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Match {
+        private final int itemId;
+        private final String name;
+        private final int rank;
+
+        private Match(int itemId, String name, int rank) {
+            this.itemId = itemId;
+            this.name = name;
+            this.rank = rank;
+        }
+    }
+
+    // Growable list of primitive ints, much smaller than a List<Integer> per trigram
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        // Order doesn't matter, so the last element fills the hole
+        private void remove(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    values[i] = values[--size];
+                    return;
+                }
+            }
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -3,20 +3,39 @@ package db;
 import constants.CommonConstants;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
 public class MyJDBC {
+    // Shared pool; physical connections are opened lazily on first use.
+    private static final ConnectionPool POOL = new ConnectionPool(
+            CommonConstants.DB_URL,
+            CommonConstants.DB_USERNAME,
+            CommonConstants.DB_PASSWORD,
+            CommonConstants.DB_POOL_MAX_SIZE,
+            CommonConstants.DB_POOL_MIN_IDLE,
+            CommonConstants.DB_POOL_MAX_WAIT_MS,
+            CommonConstants.DB_POOL_IDLE_TIMEOUT_MS,
+            CommonConstants.DB_POOL_LEAK_THRESHOLD_MS,
+            CommonConstants.DB_POOL_VALIDATION_INTERVAL_MS,
+            CommonConstants.DB_STATEMENT_CACHE_SIZE,
+            CommonConstants.DB_STATEMENT_CACHE_TABLE_LIMITS
+    );
 
-    // Establishes and returns a database connection.
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(POOL::close, "db-pool-shutdown"));
+    }
+
+    // Returns a pooled database connection.
+    // Closing it hands it back to the pool instead of closing the underlying socket.
     public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(
-                CommonConstants.DB_URL,
-                CommonConstants.DB_USERNAME,
-                CommonConstants.DB_PASSWORD
-        );
+        return POOL.borrow();
+    }
+
+    // Exposes the pool for metrics (active, idle, wait time).
+    public static ConnectionPool getPool() {
+        return POOL;
     }
 
     // Registers a new user in the database.
@@ -84,21 +103,15 @@ public class MyJDBC {
 
     // Retrieves the price of an item by its ID.
     // This method is required by DashboardGUI for calculating total revenue.
+    // Served from the item cache; only a miss goes to the database.
     public static double getItemPrice(int itemId) {
-        double price = 0.0;
-        try (Connection connection = getConnection()) {
-            PreparedStatement getPrice = connection.prepareStatement(
-                    "SELECT price FROM items WHERE id = ?"
-            );
-            getPrice.setInt(1, itemId);
-            ResultSet resultSet = getPrice.executeQuery();
-            if (resultSet.next()) {
-                price = resultSet.getDouble("price");
-            }
+        try {
+            ItemCache.Item item = ItemCache.shared().get(itemId);
+            return item != null ? item.getPrice() : 0.0;
         } catch (SQLException e) {
             System.err.println("Database error retrieving item price for ID " + itemId + ": " + e.getMessage());
             e.printStackTrace();
+            return 0.0;
         }
-        return price;
     }
 }
@@ -0,0 +1,89 @@
+package db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+// Records payments so that retrying one is always safe.
+// Every request carries an idempotency key, which payments holds under a unique constraint: a second attempt
+// with the same key - a double click, or a retry after the connection dropped with the outcome unknown -
+// finds the first attempt's row instead of inserting another. The payment row and its payment_outbox event
+// are written in one transaction, and everything that follows a payment (receipts, notifications) is driven
+// from the outbox by PaymentOutbox, so recording a payment is two short inserts and nothing else.
+public class PaymentEngine {
+    private static final String INSERT_PAYMENT =
+            "INSERT INTO payments (idempotency_key, username, payment_type, amount, account_number, card_number, " +
+            "cvv, expiry_date, payment_time) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_EVENT =
+            "INSERT INTO payment_outbox (payment_id) VALUES (?)";
+    private static final String FIND_BY_KEY =
+            "SELECT id, payment_time FROM payments WHERE idempotency_key = ?";
+
+    // Records a payment using a pooled connection.
+    public static PaymentResult record(PaymentRequest request) throws SQLException {
+        try (Connection connection = MyJDBC.getConnection()) {
+            return record(connection, request);
+        }
+    }
+
+    // Records a payment on the given connection, in its own transaction, unless its key is already recorded.
+    // The caller keeps ownership of the connection; its auto-commit mode is restored afterwards.
+    public static PaymentResult record(Connection connection, PaymentRequest request) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            long paymentId;
+            try (PreparedStatement ps = connection.prepareStatement(INSERT_PAYMENT, Statement.RETURN_GENERATED_KEYS)) {
+                ps.setString(1, request.getIdempotencyKey());
+                ps.setString(2, request.getUsername());
+                ps.setString(3, request.getPaymentType());
+                ps.setDouble(4, request.getAmount());
+                ps.setString(5, request.getAccountNumber());
+                ps.setString(6, request.getCardNumber());
+                ps.setString(7, request.getCvv());
+                ps.setString(8, request.getExpiryDate());
+                ps.setTimestamp(9, new Timestamp(request.getPaidAt()));
+                ps.executeUpdate();
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    keys.next();
+                    paymentId = keys.getLong(1);
+                }
+            } catch (SQLIntegrityConstraintViolationException e) {
+                // Blocks on the unique index until a concurrent attempt commits, so its row is visible here
+                connection.rollback();
+                PaymentResult earlier = findByKey(connection, request.getIdempotencyKey());
+                if (earlier == null) throw e; // Some other constraint
+                return earlier;
+            }
+            try (PreparedStatement ps = connection.prepareStatement(INSERT_EVENT)) {
+                ps.setLong(1, paymentId);
+                ps.executeUpdate();
+            }
+            connection.commit();
+            PaymentOutbox.shared().wakeUp();
+            return new PaymentResult(paymentId, request.getPaidAt(), false);
+        } catch (SQLException | RuntimeException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException ex) {
+                System.err.println("Rollback failed: " + ex.getMessage());
+            }
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static PaymentResult findByKey(Connection connection, String idempotencyKey) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(FIND_BY_KEY)) {
+            ps.setString(1, idempotencyKey);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? new PaymentResult(rs.getLong("id"), rs.getTimestamp("payment_time").getTime(), true) : null;
+            }
+        }
+    }
+}
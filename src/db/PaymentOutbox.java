@@ -0,0 +1,156 @@
+package db;
+
+import constants.CommonConstants;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+// Delivers the payment_outbox events written by PaymentEngine to the subscribed handlers, off the payment path.
+// One daemon thread polls for due events in id order, hands each to every handler, and marks the event done
+// once all handlers have completed; a failed event is retried later with exponential backoff, up to
+// OUTBOX_MAX_BACKOFF_MS apart. Delivery is at least once - an event whose handlers finished just before a
+// crash, or that two running applications both picked up, is delivered again - so handlers must be idempotent.
+// The poller starts with the first subscription and wakes up at once when a payment is recorded here.
+public class PaymentOutbox {
+    private static final PaymentOutbox SHARED = new PaymentOutbox(
+            CommonConstants.OUTBOX_BATCH_SIZE,
+            CommonConstants.OUTBOX_POLL_INTERVAL_MS,
+            CommonConstants.OUTBOX_MAX_BACKOFF_MS
+    );
+
+    private static final String DUE_EVENTS =
+            "SELECT id, payment_id FROM payment_outbox WHERE processed_at IS NULL AND next_attempt_at <= NOW(3) " +
+            "ORDER BY id LIMIT ?";
+    private static final String MARK_PROCESSED =
+            "UPDATE payment_outbox SET processed_at = NOW(3), attempts = attempts + 1, last_error = NULL WHERE id = ?";
+    // MySQL applies SET left to right, so the backoff is computed from the incremented attempts
+    private static final String MARK_FAILED =
+            "UPDATE payment_outbox SET attempts = attempts + 1, last_error = ?, " +
+            "next_attempt_at = NOW(3) + INTERVAL (LEAST(? * POW(2, attempts), ?) / 1000) SECOND WHERE id = ?";
+
+    // Reacts to one recorded payment. The future completes when the work is done, exceptionally if it failed.
+    public interface Handler {
+        CompletableFuture<?> onPayment(long paymentId);
+    }
+
+    private final int batchSize;
+    private final long pollIntervalMillis;
+    private final long maxBackoffMillis;
+    private final List<Handler> handlers = new CopyOnWriteArrayList<>();
+    private final Object wakeUp = new Object();
+    private boolean signalled;
+    private Thread poller;
+
+    public PaymentOutbox(int batchSize, long pollIntervalMillis, long maxBackoffMillis) {
+        this.batchSize = batchSize;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    public static PaymentOutbox shared() {
+        return SHARED;
+    }
+
+    // Adds a handler for every payment recorded from now on, and for every one still undelivered
+    public synchronized void subscribe(Handler handler) {
+        handlers.add(handler);
+        if (poller == null) {
+            poller = new Thread(this::pollLoop, "payment-outbox");
+            poller.setDaemon(true);
+            poller.start();
+        }
+    }
+
+    // Polls now rather than at the next interval
+    public void wakeUp() {
+        synchronized (wakeUp) {
+            signalled = true;
+            wakeUp.notify();
+        }
+    }
+
+    private void pollLoop() {
+        while (true) {
+            int delivered;
+            try {
+                delivered = deliverDue();
+            } catch (SQLException e) {
+                System.err.println("Error polling the payment outbox: " + e.getMessage());
+                delivered = 0;
+            }
+            // A full batch means more are probably waiting
+            if (delivered == batchSize) continue;
+            synchronized (wakeUp) {
+                try {
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pollIntervalMillis);
+                    long remaining;
+                    while (!signalled && (remaining = deadline - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(wakeUp, remaining);
+                    }
+                    signalled = false;
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Delivers one batch of due events. Returns how many were taken.
+    private int deliverDue() throws SQLException {
+        List<long[]> events = new ArrayList<>();
+        try (Connection conn = MyJDBC.getConnection();
+             PreparedStatement ps = conn.prepareStatement(DUE_EVENTS)) {
+            ps.setInt(1, batchSize);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) events.add(new long[]{rs.getLong("id"), rs.getLong("payment_id")});
+            }
+        }
+        if (events.isEmpty()) return 0;
+
+        // The whole batch is in flight at once; handlers such as the receipt renderer run it in parallel
+        List<CompletableFuture<Void>> outcomes = new ArrayList<>(events.size());
+        for (long[] event : events) {
+            List<CompletableFuture<?>> work = new ArrayList<>(handlers.size());
+            for (Handler handler : handlers) {
+                try {
+                    work.add(handler.onPayment(event[1]));
+                } catch (RuntimeException e) {
+                    work.add(CompletableFuture.failedFuture(e));
+                }
+            }
+            outcomes.add(CompletableFuture.allOf(work.toArray(new CompletableFuture<?>[0])));
+        }
+
+        try (Connection conn = MyJDBC.getConnection();
+             PreparedStatement done = conn.prepareStatement(MARK_PROCESSED);
+             PreparedStatement failed = conn.prepareStatement(MARK_FAILED)) {
+            for (int i = 0; i < events.size(); i++) {
+                long eventId = events.get(i)[0];
+                try {
+                    outcomes.get(i).join();
+                    done.setLong(1, eventId);
+                    done.addBatch();
+                } catch (RuntimeException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    String message = String.valueOf(cause.getMessage());
+                    failed.setString(1, message.length() > 255 ? message.substring(0, 255) : message);
+                    failed.setLong(2, pollIntervalMillis);
+                    failed.setLong(3, maxBackoffMillis);
+                    failed.setLong(4, eventId);
+                    failed.addBatch();
+                    System.err.println("Payment outbox event " + eventId + " failed: " + message);
+                }
+            }
+            done.executeBatch();
+            failed.executeBatch();
+        }
+        return events.size();
+    }
+}
@@ -0,0 +1,65 @@
+package db;
+
+// A payment as entered in the payment form, with the idempotency key that identifies the attempt.
+// The same key is sent again when the clerk retries the same payment, so it is recorded at most once.
+public class PaymentRequest {
+    private final String idempotencyKey;
+    private final String username;
+    private final String paymentType;
+    private final double amount;
+    private final String accountNumber;
+    private final String cardNumber;
+    private final String cvv;
+    private final String expiryDate;
+    // Epoch millis, whole seconds
+    private final long paidAt;
+
+    public PaymentRequest(String idempotencyKey, String username, String paymentType, double amount,
+                          String accountNumber, String cardNumber, String cvv, String expiryDate, long paidAt) {
+        this.idempotencyKey = idempotencyKey;
+        this.username = username;
+        this.paymentType = paymentType;
+        this.amount = amount;
+        this.accountNumber = accountNumber;
+        this.cardNumber = cardNumber;
+        this.cvv = cvv;
+        this.expiryDate = expiryDate;
+        this.paidAt = paidAt;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getPaymentType() {
+        return paymentType;
+    }
+
+    public double getAmount() {
+        return amount;
+    }
+
+    public String getAccountNumber() {
+        return accountNumber;
+    }
+
+    public String getCardNumber() {
+        return cardNumber;
+    }
+
+    public String getCvv() {
+        return cvv;
+    }
+
+    public String getExpiryDate() {
+        return expiryDate;
+    }
+
+    public long getPaidAt() {
+        return paidAt;
+    }
+}
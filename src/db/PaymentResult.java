@@ -0,0 +1,29 @@
+package db;
+
+// Outcome of PaymentEngine.record: the payment row for the request's idempotency key,
+// and whether this call created it or found it already recorded by an earlier attempt.
+public class PaymentResult {
+    private final long paymentId;
+    private final long paidAt;
+    private final boolean duplicate;
+
+    PaymentResult(long paymentId, long paidAt, boolean duplicate) {
+        this.paymentId = paymentId;
+        this.paidAt = paidAt;
+        this.duplicate = duplicate;
+    }
+
+    public long getPaymentId() {
+        return paymentId;
+    }
+
+    // payment_time of the recorded payment, in epoch millis
+    public long getPaidAt() {
+        return paidAt;
+    }
+
+    // True if an earlier attempt with the same key had already recorded the payment
+    public boolean isDuplicate() {
+        return duplicate;
+    }
+}
@@ -0,0 +1,21 @@
+package db;
+
+// One line of a checkout basket: an item and how many units of it to sell.
+public class SaleLine {
+    private final int itemId;
+    private final int quantity;
+
+    public SaleLine(int itemId, int quantity) {
+        if (quantity <= 0) throw new IllegalArgumentException("Quantity must be positive: " + quantity);
+        this.itemId = itemId;
+        this.quantity = quantity;
+    }
+
+    public int getItemId() {
+        return itemId;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+}
@@ -0,0 +1,62 @@
+package db;
+
+// Outcome of a single sale attempt.
+// Returned by SalesEngine instead of showing a dialog, so the sell path can run without a GUI.
+public class SaleResult {
+    public enum Status {
+        SOLD,
+        INSUFFICIENT_STOCK,
+        NOT_FOUND
+    }
+
+    private final Status status;
+    private final int itemId;
+    private final int quantity;
+    // Stock on hand when the sale was refused for insufficient stock, otherwise -1
+    private final int available;
+
+    private SaleResult(Status status, int itemId, int quantity, int available) {
+        this.status = status;
+        this.itemId = itemId;
+        this.quantity = quantity;
+        this.available = available;
+    }
+
+    static SaleResult sold(int itemId, int quantity) {
+        return new SaleResult(Status.SOLD, itemId, quantity, -1);
+    }
+
+    static SaleResult insufficientStock(int itemId, int quantity, int available) {
+        return new SaleResult(Status.INSUFFICIENT_STOCK, itemId, quantity, available);
+    }
+
+    static SaleResult notFound(int itemId, int quantity) {
+        return new SaleResult(Status.NOT_FOUND, itemId, quantity, -1);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isSold() {
+        return status == Status.SOLD;
+    }
+
+    public int getItemId() {
+        return itemId;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public int getAvailable() {
+        return available;
+    }
+
+    @Override
+    public String toString() {
+        return "SaleResult{" + status + ", item=" + itemId + ", qty=" + quantity
+                + (available >= 0 ? ", available=" + available : "") + "}";
+    }
+}
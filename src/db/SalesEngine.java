@@ -0,0 +1,212 @@
+package db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Records sales against the items table.
+// Stock is decremented with a single guarded UPDATE, so two tills selling the same item
+// can never both succeed when only one has enough stock, and nothing is read before the write.
+// Each sale also snapshots the unit price and bumps the running totals in sales_totals
+// inside the same transaction, so "Total Sold"/"Total Revenue" are a read of a few rows.
+// The totals are striped over TOTALS_SLOTS rows and each transaction updates one at random:
+// with a single row, every sale would wait for the row lock of the one before it to commit.
+public class SalesEngine {
+    // Rows 1..TOTALS_SLOTS of sales_totals; readers SUM them all
+    public static final int TOTALS_SLOTS = 16;
+
+    private static final String DECREMENT_STOCK =
+            "UPDATE items SET quantity = quantity - ? WHERE id = ? AND quantity >= ?";
+    // Copies the current price onto the sale row, so later price edits don't rewrite history
+    private static final String INSERT_SALE =
+            "INSERT INTO sales (item_id, quantity_sold, unit_price) SELECT id, ?, price FROM items WHERE id = ?";
+    private static final String ADD_TO_TOTALS =
+            "UPDATE sales_totals SET sale_count = sale_count + 1, total_qty = total_qty + ?, " +
+            "total_revenue = total_revenue + ? * (SELECT price FROM items WHERE id = ?) WHERE id = ?";
+    private static final String SUBTRACT_ITEM_SALES =
+            "UPDATE sales_totals t, (SELECT COUNT(*) AS n, COALESCE(SUM(quantity_sold), 0) AS qty, " +
+            "COALESCE(SUM(quantity_sold * unit_price), 0) AS revenue FROM sales WHERE item_id = ?) s " +
+            "SET t.sale_count = t.sale_count - s.n, t.total_qty = t.total_qty - s.qty, " +
+            "t.total_revenue = t.total_revenue - s.revenue WHERE t.id = ?";
+    private static final String CURRENT_STOCK =
+            "SELECT quantity FROM items WHERE id = ?";
+
+    // Sells qty units of an item using a pooled connection.
+    public static SaleResult sell(int itemId, int qty) throws SQLException {
+        try (Connection connection = MyJDBC.getConnection()) {
+            return sell(connection, itemId, qty);
+        }
+    }
+
+    // Sells qty units of an item on the given connection, in its own transaction.
+    // The caller keeps ownership of the connection; its auto-commit mode is restored afterwards.
+    public static SaleResult sell(Connection connection, int itemId, int qty) throws SQLException {
+        if (qty <= 0) throw new IllegalArgumentException("Quantity must be positive: " + qty);
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            SaleResult result;
+            if (decrementStock(connection, itemId, qty)) {
+                insertSale(connection, itemId, qty);
+                result = SaleResult.sold(itemId, qty);
+            } else {
+                // Only the failure path pays for a read, to tell "no such item" from "not enough"
+                result = explainRefusal(connection, itemId, qty);
+            }
+            connection.commit();
+            // Its cached stock is now stale. Only after the commit: invalidated earlier, a concurrent
+            // read could re-cache the pre-sale quantity for the whole TTL.
+            if (result.isSold()) ItemCache.shared().invalidate(itemId);
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException ex) {
+                System.err.println("Rollback failed: " + ex.getMessage());
+            }
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    // Sells a whole basket using a pooled connection.
+    public static CheckoutResult checkout(List<SaleLine> lines) throws SQLException {
+        try (Connection connection = MyJDBC.getConnection()) {
+            return checkout(connection, lines);
+        }
+    }
+
+    // Sells a whole basket in one transaction. The guarded decrements and the sales rows are each
+    // sent as one JDBC batch (rewritten into multi-row statements by rewriteBatchedStatements),
+    // so a basket costs a handful of round trips however many lines it has.
+    // If any line cannot be sold the transaction is rolled back and nothing is recorded.
+    public static CheckoutResult checkout(Connection connection, List<SaleLine> lines) throws SQLException {
+        if (lines.isEmpty()) return new CheckoutResult(true, new ArrayList<>());
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            int[] updated;
+            try (PreparedStatement ps = connection.prepareStatement(DECREMENT_STOCK)) {
+                for (SaleLine line : lines) {
+                    ps.setInt(1, line.getQuantity());
+                    ps.setInt(2, line.getItemId());
+                    ps.setInt(3, line.getQuantity());
+                    ps.addBatch();
+                }
+                updated = ps.executeBatch();
+            }
+
+            List<SaleResult> results = new ArrayList<>(lines.size());
+            boolean allSold = true;
+            for (int i = 0; i < lines.size(); i++) {
+                SaleLine line = lines.get(i);
+                // SUCCESS_NO_INFO only comes back for rows the driver could not count, never for a refused guard
+                if (updated[i] == 0) {
+                    allSold = false;
+                    results.add(explainRefusal(connection, line.getItemId(), line.getQuantity()));
+                } else {
+                    results.add(SaleResult.sold(line.getItemId(), line.getQuantity()));
+                }
+            }
+
+            if (!allSold) {
+                connection.rollback();
+                return new CheckoutResult(false, results);
+            }
+
+            try (PreparedStatement ps = connection.prepareStatement(INSERT_SALE)) {
+                for (SaleLine line : lines) {
+                    ps.setInt(1, line.getQuantity());
+                    ps.setInt(2, line.getItemId());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            try (PreparedStatement ps = connection.prepareStatement(ADD_TO_TOTALS)) {
+                // One slot for the whole basket: locking several could deadlock against another basket
+                int slot = randomTotalsSlot();
+                for (SaleLine line : lines) {
+                    setTotalsParameters(ps, line.getItemId(), line.getQuantity(), slot);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            connection.commit();
+            for (SaleLine line : lines) {
+                ItemCache.shared().invalidate(line.getItemId());
+            }
+            return new CheckoutResult(true, results);
+        } catch (SQLException | RuntimeException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException ex) {
+                System.err.println("Rollback failed: " + ex.getMessage());
+            }
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static boolean decrementStock(Connection connection, int itemId, int qty) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(DECREMENT_STOCK)) {
+            ps.setInt(1, qty);
+            ps.setInt(2, itemId);
+            ps.setInt(3, qty);
+            return ps.executeUpdate() == 1;
+        }
+    }
+
+    private static void insertSale(Connection connection, int itemId, int qty) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(INSERT_SALE)) {
+            ps.setInt(1, qty);
+            ps.setInt(2, itemId);
+            ps.executeUpdate();
+        }
+        try (PreparedStatement ps = connection.prepareStatement(ADD_TO_TOTALS)) {
+            setTotalsParameters(ps, itemId, qty, randomTotalsSlot());
+            ps.executeUpdate();
+        }
+    }
+
+    private static void setTotalsParameters(PreparedStatement ps, int itemId, int qty, int slot) throws SQLException {
+        ps.setInt(1, qty);
+        ps.setInt(2, qty);
+        ps.setInt(3, itemId);
+        ps.setInt(4, slot);
+    }
+
+    private static int randomTotalsSlot() {
+        return 1 + ThreadLocalRandom.current().nextInt(TOTALS_SLOTS);
+    }
+
+    // Takes an item's sales out of the running totals. Call it in the same transaction as the
+    // DELETE: the ON DELETE CASCADE on sales removes the rows without firing any trigger.
+    // Only the sums over all slots are meaningful, so the whole amount comes off one slot.
+    public static void subtractItemSales(Connection connection, int itemId) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(SUBTRACT_ITEM_SALES)) {
+            ps.setInt(1, itemId);
+            ps.setInt(2, randomTotalsSlot());
+            ps.executeUpdate();
+        }
+    }
+
+    private static SaleResult explainRefusal(Connection connection, int itemId, int qty) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(CURRENT_STOCK)) {
+            ps.setInt(1, itemId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return SaleResult.insufficientStock(itemId, qty, rs.getInt("quantity"));
+                }
+                return SaleResult.notFound(itemId, qty);
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package db;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Keeps prepared statements alive on one physical connection, keyed by SQL text.
+// Entries are evicted least-recently-used, both against an overall capacity and
+// against optional per-table limits, so a burst of ad-hoc queries on one table
+// cannot push the hot statements of another table out.
+class StatementCache {
+    // Hit/miss counters shared by every cache so the effect shows up in one place
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder EVICTIONS = new LongAdder();
+
+    // First table named after FROM / INTO / UPDATE
+    private static final Pattern TABLE_PATTERN =
+            Pattern.compile("\\b(?:from|into|update)\\s+`?(\\w+)`?", Pattern.CASE_INSENSITIVE);
+
+    private final Connection physical;
+    private final int capacity;
+    private final Map<String, Integer> tableLimits;
+    // Access-ordered, so iteration starts at the least recently used statement
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Integer> perTableCount = new HashMap<>();
+
+    StatementCache(Connection physical, int capacity, Map<String, Integer> tableLimits) {
+        this.physical = physical;
+        this.capacity = capacity;
+        this.tableLimits = tableLimits;
+    }
+
+    // Returns a statement for sql, or null if caching is off or the cached one is already in use
+    // (the caller then prepares an uncached statement).
+    synchronized PreparedStatement checkout(String sql) throws SQLException {
+        if (capacity <= 0) return null;
+
+        Entry entry = entries.get(sql);
+        if (entry != null) {
+            if (entry.inUse) return null;
+            HITS.increment();
+            entry.inUse = true;
+            return entry.newHandle();
+        }
+
+        MISSES.increment();
+        String table = tableOf(sql);
+        makeRoom(table);
+        entry = new Entry(sql, table, physical.prepareStatement(sql));
+        entries.put(sql, entry);
+        if (table != null) perTableCount.merge(table, 1, Integer::sum);
+        entry.inUse = true;
+        return entry.newHandle();
+    }
+
+    // Marks every statement free again; called when the connection goes back to the pool.
+    synchronized void releaseAll() {
+        // release() may drop broken entries, so iterate over a copy
+        for (Entry entry : entries.values().toArray(new Entry[0])) {
+            entry.release();
+        }
+    }
+
+    // Closes every cached statement; called before the physical connection is closed.
+    synchronized void closeAll() {
+        for (Entry entry : entries.values()) {
+            entry.closeQuietly();
+        }
+        entries.clear();
+        perTableCount.clear();
+    }
+
+    private void makeRoom(String table) {
+        Integer tableLimit = table == null ? null : tableLimits.get(table);
+        if (tableLimit != null && perTableCount.getOrDefault(table, 0) >= tableLimit) {
+            evictOldest(table);
+        }
+        if (entries.size() >= capacity) {
+            evictOldest(null);
+        }
+    }
+
+    // Evicts the least recently used idle statement, optionally restricted to one table
+    private void evictOldest(String table) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry candidate = it.next();
+            if (candidate.inUse) continue;
+            if (table != null && !table.equals(candidate.table)) continue;
+            it.remove();
+            if (candidate.table != null) perTableCount.merge(candidate.table, -1, Integer::sum);
+            candidate.closeQuietly();
+            EVICTIONS.increment();
+            return;
+        }
+    }
+
+    static String tableOf(String sql) {
+        Matcher matcher = TABLE_PATTERN.matcher(sql);
+        return matcher.find() ? matcher.group(1).toLowerCase(Locale.ROOT) : null;
+    }
+
+    static long getHitCount() {
+        return HITS.sum();
+    }
+
+    static long getMissCount() {
+        return MISSES.sum();
+    }
+
+    static long getEvictionCount() {
+        return EVICTIONS.sum();
+    }
+
+    private final class Entry {
+        private final String sql;
+        private final String table;
+        private final PreparedStatement statement;
+        private boolean inUse;
+        private Object currentHandle;
+
+        private Entry(String sql, String table, PreparedStatement statement) {
+            this.sql = sql;
+            this.table = table;
+            this.statement = statement;
+        }
+
+        // Each checkout gets its own handle so a stale reference cannot close or reuse
+        // the statement after it has been handed to someone else.
+        private PreparedStatement newHandle() {
+            Object[] self = new Object[1];
+            PreparedStatement handle = (PreparedStatement) Proxy.newProxyInstance(
+                    StatementCache.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class},
+                    (proxy, method, args) -> {
+                        String name = method.getName();
+                        synchronized (StatementCache.this) {
+                            boolean live = currentHandle == self[0];
+                            switch (name) {
+                                case "close":
+                                    if (live) release();
+                                    return null;
+                                case "isClosed":
+                                    return !live || statement.isClosed();
+                                case "equals":
+                                    return proxy == args[0];
+                                case "hashCode":
+                                    return System.identityHashCode(proxy);
+                                case "getConnection":
+                                    throw new SQLException("getConnection() is not supported on cached statements");
+                                default:
+                                    if (!live) throw new SQLException("Statement has been closed: " + sql);
+                            }
+                        }
+                        try {
+                            return method.invoke(statement, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+            self[0] = handle;
+            currentHandle = handle;
+            return handle;
+        }
+
+        private void release() {
+            if (!inUse) return;
+            inUse = false;
+            currentHandle = null;
+            try {
+                statement.clearParameters();
+                // A batch added but never executed (e.g. an exception before executeBatch) must not
+                // run with the next borrower's batch
+                statement.clearBatch();
+            } catch (SQLException e) {
+                // A broken statement is dropped; the next checkout prepares it again
+                entries.remove(sql);
+                if (table != null) perTableCount.merge(table, -1, Integer::sum);
+                closeQuietly();
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException ignored) {
+                // the connection itself is about to be closed or validated
+            }
+        }
+    }
+}
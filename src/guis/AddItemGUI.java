@@ -1,12 +1,10 @@
 package guis;
 
-import db.MyJDBC;
+import db.ItemCache;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
 
 public class AddItemGUI extends JFrame {
     private JTextField nameField, qtyField, priceField;
@@ -88,27 +86,18 @@ public class AddItemGUI extends JFrame {
                 return;
             }
 
-            try (Connection conn = MyJDBC.getConnection()) {
-                String sql = "INSERT INTO items (item_name, quantity, price) VALUES (?, ?, ?)";
-                PreparedStatement ps = conn.prepareStatement(sql);
-                ps.setString(1, name);
-                ps.setInt(2, quantity);
-                ps.setDouble(3, price);
-
-                int rows = ps.executeUpdate();
-                if (rows > 0) {
-                    JOptionPane.showMessageDialog(this, "Item added successfully!");
-                    nameField.setText("");
-                    qtyField.setText("");
-                    priceField.setText("");
-
-                    if (dashboard != null) {
-                        dashboard.loadItems("");
-                    }
-
-                    dispose();
-                }
+            // Written through the item cache, so the new item is cached and searchable straight away
+            ItemCache.shared().insert(name, quantity, price);
+            JOptionPane.showMessageDialog(this, "Item added successfully!");
+            nameField.setText("");
+            qtyField.setText("");
+            priceField.setText("");
+
+            if (dashboard != null) {
+                dashboard.refreshItems(); // Picks up the new row without a full reload
             }
+
+            dispose();
         } catch (NumberFormatException ex) {
             JOptionPane.showMessageDialog(this, "Quantity and Price must be numeric.");
         } catch (Exception ex) {
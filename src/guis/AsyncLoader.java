@@ -0,0 +1,91 @@
+package guis;
+
+import javax.swing.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Runs database work off the Event Dispatch Thread and hands results back on it.
+// Keyed submissions are "latest wins": a new request for a key cancels a queued one
+// (so repeated refreshes coalesce into one query) and discards the result of one already running.
+class AsyncLoader {
+    // Work that runs on a background thread
+    interface Task<T> {
+        T run() throws Exception;
+    }
+
+    private final ExecutorService executor;
+    private final Map<String, Submission> latest = new ConcurrentHashMap<>();
+    private volatile boolean shutdown;
+
+    AsyncLoader(String name, int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Runs a task that supersedes any earlier task submitted under the same key.
+    // Must be called on the EDT; callbacks run on the EDT only if no newer task for the key was submitted.
+    <T> void submit(String key, Task<T> task, Consumer<T> onSuccess, Consumer<Exception> onError) {
+        Submission submission = new Submission();
+        Submission previous = latest.put(key, submission);
+        if (previous != null && previous.future != null) {
+            // Not interrupted: a JDBC call cut off mid-flight can leave the pooled connection unusable
+            previous.future.cancel(false);
+        }
+        submission.future = start(task,
+                result -> {
+                    if (latest.get(key) != submission) return; // superseded while running
+                    latest.remove(key);
+                    onSuccess.accept(result);
+                },
+                error -> {
+                    if (latest.get(key) != submission) return;
+                    latest.remove(key);
+                    onError.accept(error);
+                });
+    }
+
+    // Runs a task that is never cancelled, e.g. a write.
+    <T> void execute(Task<T> task, Consumer<T> onSuccess, Consumer<Exception> onError) {
+        start(task, onSuccess, onError);
+    }
+
+    // True while a keyed task is queued or running
+    boolean isPending(String key) {
+        return latest.containsKey(key);
+    }
+
+    void shutdown() {
+        shutdown = true;
+        executor.shutdownNow();
+        latest.clear();
+    }
+
+    private <T> Future<?> start(Task<T> task, Consumer<T> onSuccess, Consumer<Exception> onError) {
+        if (shutdown) return null;
+        return executor.submit(() -> {
+            try {
+                T result = task.run();
+                SwingUtilities.invokeLater(() -> {
+                    if (!shutdown) onSuccess.accept(result);
+                });
+            } catch (Exception e) {
+                SwingUtilities.invokeLater(() -> {
+                    if (!shutdown) onError.accept(e);
+                });
+            }
+        });
+    }
+
+    private static final class Submission {
+        private volatile Future<?> future;
+    }
+}
@@ -1,9 +1,18 @@
 package guis;
 
+import db.ItemCache;
 import db.MyJDBC;
+import db.SaleLine;
+import db.SaleResult;
+import db.SalesEngine;
+import db.ItemSearchIndex;
 import chat.ChatClient; // Import the ChatClient class
+import receipts.ReceiptExport;
+import receipts.ReceiptService;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableCellEditor; // Import TableCellEditor
 import javax.swing.table.TableCellRenderer; // Import TableCellRenderer
@@ -13,18 +22,29 @@ import java.io.File; // Import File for CSV export
 import java.io.FileWriter;
 import java.io.IOException; // Import IOException for FileWriter
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 
 public class DashboardGUI extends JFrame {
     private final JTable itemTable;
     private final JTable salesTable;
     private final DefaultTableModel itemModel;
-    private final DefaultTableModel salesModel;
+    private final PagedSalesTableModel salesModel;
     private final JTextField searchField;
     // Added chatButton, dashboardBtn, addItemSidebarBtn to declarations for clarity
     private final JButton addItemBtn;
     private final JButton logoutBtn;
     private final JButton searchBtn;
+    private final JButton checkoutBtn;
     private final JButton exportBtn;
+    private final JButton exportReceiptsBtn;
     private final JButton topPaymentBtn;
     private final JButton paymentSidebarBtn;
     private final JButton chatButton;
@@ -34,6 +54,29 @@ public class DashboardGUI extends JFrame {
     private final JLabel totalRevenueLabel;
     private final String username;
 
+    // Background executor for all database work started from this window
+    private final AsyncLoader loader = new AsyncLoader("dashboard-db", 3);
+    private final ItemSearchIndex searchIndex = ItemSearchIndex.shared();
+    private final ItemCache itemCache = ItemCache.shared();
+    // Search-as-you-type fires once typing pauses, not on every keystroke
+    private final Timer searchDebounce;
+
+    // Change-tracking state for incremental refresh (EDT only)
+    // updated_at and deletion_id are assigned when a row is written, not when its transaction commits,
+    // so a delta re-reads a window behind each mark: a write that committed after a later one was read
+    // is still picked up. Re-applying a row already shown changes nothing.
+    // The time window outlasts InnoDB's default 50 s lock wait, the longest a sale can sit uncommitted.
+    private static final long CHANGE_OVERLAP_MILLIS = 60_000;
+    private static final long DELETION_OVERLAP_IDS = 1_000;
+    private String currentKeyword = "";
+    private Timestamp itemsChangedSince; // newest items.updated_at already applied
+    private long lastDeletionId;         // newest items_deleted row already applied
+    private int lastSaleId;              // high-water mark on sales.sale_id
+    private boolean itemsDeltaRequested; // a delta was asked for while a full item load was running
+    private boolean salesDeltaRequested;
+    private int totalQtySold;
+    private double totalRevenue;
+
     // Define colors once for consistency
     private final Color sidebarBg = new Color(30, 45, 70);
     private final Color sidebarBtnBg = new Color(50, 70, 110);
@@ -107,6 +150,10 @@ public class DashboardGUI extends JFrame {
         styleMainButtons(searchBtn);
         controlsPanel.add(searchBtn);
 
+        checkoutBtn = new JButton("Checkout Selected");
+        styleMainButtons(checkoutBtn);
+        controlsPanel.add(checkoutBtn);
+
         addItemBtn = new JButton("Add Item");
         styleMainButtons(addItemBtn);
         controlsPanel.add(addItemBtn);
@@ -149,7 +196,8 @@ public class DashboardGUI extends JFrame {
         tablesSplitPane.setTopComponent(itemScroll);
 
         // Sales Table
-        salesModel = new DefaultTableModel(new String[]{"Sale ID", "Item Name", "Qty Sold", "Time"}, 0);
+        // Paged: only the rows near the viewport are ever held in memory
+        salesModel = new PagedSalesTableModel(loader, 100, 20);
         salesTable = new JTable(salesModel);
         salesTable.setRowHeight(30);
         salesTable.getTableHeader().setFont(new Font("Segoe UI", Font.BOLD, 14));
@@ -171,6 +219,10 @@ public class DashboardGUI extends JFrame {
         styleMainButtons(exportBtn);
         bottomPanel.add(exportBtn);
 
+        exportReceiptsBtn = new JButton("Export Day Receipts");
+        styleMainButtons(exportReceiptsBtn);
+        bottomPanel.add(exportReceiptsBtn);
+
         totalQtyLabel = new JLabel("Total Sold: 0");
         totalQtyLabel.setFont(new Font("Segoe UI", Font.BOLD, 14));
         totalQtyLabel.setForeground(Color.DARK_GRAY);
@@ -184,7 +236,29 @@ public class DashboardGUI extends JFrame {
         mainPanel.add(bottomPanel, BorderLayout.SOUTH);
 
         // === Button Actions ===
-        searchBtn.addActionListener(e -> loadItems(searchField.getText().trim()));
+        searchDebounce = new Timer(250, e -> loadItems(searchField.getText().trim()));
+        searchDebounce.setRepeats(false);
+        searchBtn.addActionListener(e -> {
+            searchDebounce.stop();
+            loadItems(searchField.getText().trim());
+        });
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                searchDebounce.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchDebounce.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                searchDebounce.restart();
+            }
+        });
+        checkoutBtn.addActionListener(e -> checkoutSelected());
         addItemBtn.addActionListener(e -> new AddItemGUI(this).setVisible(true));
         addItemSidebarBtn.addActionListener(e -> new AddItemGUI(this).setVisible(true));
         topPaymentBtn.addActionListener(e -> new PaymentFormGUI(username).setVisible(true));
@@ -200,8 +274,10 @@ public class DashboardGUI extends JFrame {
             loadItems(""); // Refresh all items
             loadSales(); // Refresh sales data
             searchField.setText(""); // Clear search field
+            searchDebounce.stop(); // Items were just reloaded, no need to search again
         });
         exportBtn.addActionListener(e -> exportSalesToCSV());
+        exportReceiptsBtn.addActionListener(e -> exportDayReceipts());
         // Action Listener for the new Chat button
         chatButton.addActionListener(e -> {
             // Check if server is running before attempting to connect
@@ -226,9 +302,7 @@ public class DashboardGUI extends JFrame {
                         try {
                             int qtyToSell = Integer.parseInt(qtyStr);
                             if (qtyToSell > 0) {
-                                sellItem(itemId, qtyToSell);
-                                loadItems(""); // Refresh items after selling
-                                loadSales();   // Refresh sales after selling
+                                sellItem(itemId, qtyToSell); // Refreshes the sold row and new sales when done
                             } else {
                                 JOptionPane.showMessageDialog(DashboardGUI.this, "Quantity must be positive.", "Invalid Input", JOptionPane.WARNING_MESSAGE);
                             }
@@ -266,7 +340,6 @@ public class DashboardGUI extends JFrame {
                                 return;
                             }
                             updateItem(itemId, newName, newQty, newPrice);
-                            loadItems(""); // Refresh items after update
                         } catch (NumberFormatException ex) {
                             JOptionPane.showMessageDialog(DashboardGUI.this, "Quantity and Price must be numeric.", "Invalid Input", JOptionPane.ERROR_MESSAGE);
                         }
@@ -275,7 +348,6 @@ public class DashboardGUI extends JFrame {
                     int confirm = JOptionPane.showConfirmDialog(DashboardGUI.this, "Are you sure you want to delete this item?", "Delete Item", JOptionPane.YES_NO_OPTION);
                     if (confirm == JOptionPane.YES_OPTION) {
                         deleteItem(itemId);
-                        loadItems(""); // Refresh items after delete
                     }
                 }
             }
@@ -286,6 +358,13 @@ public class DashboardGUI extends JFrame {
         loadSales();
     }
 
+    @Override
+    public void dispose() {
+        searchDebounce.stop();
+        loader.shutdown();
+        super.dispose();
+    }
+
     // --- Helper method to create and style sidebar buttons ---
     private JButton createSidebarButton(String text) {
         JButton button = new JButton(text);
@@ -434,167 +513,449 @@ public class DashboardGUI extends JFrame {
 
 
     // --- Data Loading and Operations ---
+    // JDBC work runs on the loader's background threads; table models and labels are only touched on the EDT.
+    // Full loads record change-tracking marks; the refresh*Delta methods then fetch only what changed since.
     public void loadItems(String searchKeyword) {
-        itemModel.setRowCount(0); // Clear existing data
+        String keyword = searchKeyword == null ? "" : searchKeyword;
+        loader.submit("items", () -> fetchItems(keyword), load -> {
+            currentKeyword = keyword;
+            itemsChangedSince = load.changedSince;
+            lastDeletionId = load.lastDeletionId;
+            replaceRows(itemModel, load.rows);
+            // A write finished while this load was running; make sure it shows up
+            if (itemsDeltaRequested) {
+                itemsDeltaRequested = false;
+                refreshItemsDelta();
+            }
+        }, e -> showDatabaseError("Error loading items: ", e));
+    }
+
+    // Refreshes the item table after an add/edit/delete without reloading it.
+    public void refreshItems() {
+        refreshItemsDelta();
+    }
+
+    private ItemChanges fetchItems(String keyword) throws SQLException {
         // Use 'item_name' as per your SQL schema for the 'items' table
         String query = "SELECT id, item_name, quantity, price FROM items";
-        if (searchKeyword != null && !searchKeyword.isEmpty()) {
+        if (!keyword.isEmpty()) {
             query += " WHERE item_name LIKE ?"; // Search by item_name
         }
 
-        try (Connection conn = MyJDBC.getConnection();
-             PreparedStatement ps = conn.prepareStatement(query)) {
-
-            if (searchKeyword != null && !searchKeyword.isEmpty()) {
-                ps.setString(1, "%" + searchKeyword + "%");
-            }
-
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                itemModel.addRow(new Object[]{
-                        rs.getInt("id"),
-                        rs.getString("item_name"), // Use item_name
-                        rs.getInt("quantity"),
-                        rs.getDouble("price"),
-                        "Sell", // Placeholder for button
-                        "Edit", // Placeholder for button
-                        "Delete" // Placeholder for button
-                });
-            }
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(this, "Error loading items: " + e.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE);
+        ItemChanges load = new ItemChanges();
+        try (Connection conn = MyJDBC.getConnection()) {
+            // Take the marks before reading, so anything changed during the load is picked up by the next delta
+            try (PreparedStatement ps = conn.prepareStatement("SELECT MAX(updated_at) FROM items");
+                 ResultSet rs = ps.executeQuery()) {
+                load.changedSince = rs.next() ? rs.getTimestamp(1) : null;
+            }
+            try (PreparedStatement ps = conn.prepareStatement("SELECT COALESCE(MAX(deletion_id), 0) FROM items_deleted");
+                 ResultSet rs = ps.executeQuery()) {
+                load.lastDeletionId = rs.next() ? rs.getLong(1) : 0;
+            }
+
+            if (keyword.isEmpty()) {
+                // A full read of the catalogue is the cheapest moment to (re)fill the item cache and search index
+                for (ItemCache.Item item : itemCache.loadAll()) {
+                    load.rows.add(itemRow(item));
+                }
+            } else if (searchIndex.isReady()) {
+                // Ranked ids from the in-memory index, then one primary-key lookup for their rows
+                load.rows.addAll(fetchItemRows(conn, searchIndex.search(keyword, ItemSearchIndex.DEFAULT_LIMIT)));
+            } else {
+                try (PreparedStatement ps = conn.prepareStatement(query)) {
+                    ps.setString(1, "%" + keyword + "%");
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            load.rows.add(itemRow(rs));
+                        }
+                    }
+                }
+            }
+        }
+        return load;
+    }
+
+    // Returns the given items in the order of itemIds: fresh ones from the item cache, the rest by primary key.
+    // The IN list is padded to a power-of-two length so the statement cache sees only a few distinct SQL strings.
+    private List<Vector<Object>> fetchItemRows(Connection conn, List<Integer> itemIds) throws SQLException {
+        List<Vector<Object>> rows = new ArrayList<>();
+        if (itemIds.isEmpty()) return rows;
+
+        Map<Integer, Vector<Object>> byId = new HashMap<>();
+        List<Integer> missingIds = new ArrayList<>();
+        for (int itemId : itemIds) {
+            ItemCache.Item item = itemCache.getIfPresent(itemId);
+            if (item != null) {
+                byId.put(itemId, itemRow(item));
+            } else {
+                missingIds.add(itemId);
+            }
+        }
+        if (!missingIds.isEmpty()) readItemRows(conn, missingIds, byId);
+
+        for (int itemId : itemIds) {
+            Vector<Object> row = byId.get(itemId);
+            if (row != null) rows.add(row);
+        }
+        return rows;
+    }
+
+    private void readItemRows(Connection conn, List<Integer> itemIds, Map<Integer, Vector<Object>> byId) throws SQLException {
+        int slots = Integer.highestOneBit(Math.max(8, itemIds.size() - 1)) << 1;
+        StringBuilder query = new StringBuilder("SELECT id, item_name, quantity, price FROM items WHERE id IN (");
+        for (int i = 0; i < slots; i++) {
+            query.append(i == 0 ? "?" : ", ?");
+        }
+        query.append(")");
+
+        try (PreparedStatement ps = conn.prepareStatement(query.toString())) {
+            for (int i = 0; i < slots; i++) {
+                // Unused slots repeat the first id, which adds nothing to the result
+                ps.setInt(i + 1, itemIds.get(i < itemIds.size() ? i : 0));
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Vector<Object> row = itemRow(rs);
+                    byId.put((Integer) row.get(0), row);
+                    itemCache.put((Integer) row.get(0), (String) row.get(1), (Integer) row.get(2), (Double) row.get(3));
+                }
+            }
+        }
+    }
+
+    // Patches itemModel with rows changed (updated_at) or deleted (items_deleted) since the last mark.
+    private void refreshItemsDelta() {
+        if (loader.isPending("items")) {
+            itemsDeltaRequested = true; // Applied once the running full load lands
+            return;
+        }
+        Timestamp since = itemsChangedSince;
+        long deletionMark = lastDeletionId;
+        loader.submit("items-delta", () -> fetchItemChanges(since, deletionMark), changes -> {
+            if (changes.changedSince != null
+                    && (itemsChangedSince == null || changes.changedSince.after(itemsChangedSince))) {
+                itemsChangedSince = changes.changedSince;
+            }
+            lastDeletionId = Math.max(lastDeletionId, changes.lastDeletionId);
+            for (Vector<Object> rowData : changes.rows) {
+                applyItemChange(rowData);
+            }
+            for (int itemId : changes.deletedIds) {
+                int row = findItemRow(itemId);
+                if (row >= 0) itemModel.removeRow(row);
+            }
+        }, e -> showDatabaseError("Error refreshing items: ", e));
+    }
+
+    private ItemChanges fetchItemChanges(Timestamp since, long deletionMark) throws SQLException {
+        ItemChanges changes = new ItemChanges();
+        changes.changedSince = since;
+        changes.lastDeletionId = deletionMark;
+        String changedQuery = "SELECT id, item_name, quantity, price, updated_at FROM items"
+                + (since != null ? " WHERE updated_at >= ?" : "");
+
+        try (Connection conn = MyJDBC.getConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement(changedQuery)) {
+                if (since != null) ps.setTimestamp(1, new Timestamp(since.getTime() - CHANGE_OVERLAP_MILLIS));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Timestamp updatedAt = rs.getTimestamp("updated_at");
+                        if (changes.changedSince == null || updatedAt.after(changes.changedSince)) {
+                            changes.changedSince = updatedAt;
+                        }
+                        Vector<Object> row = itemRow(rs);
+                        changes.rows.add(row);
+                        itemCache.put((Integer) row.get(0), (String) row.get(1), (Integer) row.get(2), (Double) row.get(3));
+                    }
+                }
+            }
+
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT deletion_id, item_id FROM items_deleted WHERE deletion_id > ? ORDER BY deletion_id")) {
+                ps.setLong(1, Math.max(0, deletionMark - DELETION_OVERLAP_IDS));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        changes.lastDeletionId = Math.max(changes.lastDeletionId, rs.getLong("deletion_id"));
+                        changes.deletedIds.add(rs.getInt("item_id"));
+                        itemCache.remove(rs.getInt("item_id"));
+                    }
+                }
+            }
+        }
+        return changes;
+    }
+
+    // Inserts, updates or drops one item row depending on whether it still matches the current search.
+    private void applyItemChange(Vector<Object> rowData) {
+        int itemId = (Integer) rowData.get(0);
+        int row = findItemRow(itemId);
+        boolean matches = currentKeyword.isEmpty()
+                || rowData.get(1).toString().toLowerCase().contains(currentKeyword.toLowerCase());
+        if (!matches) {
+            if (row >= 0) itemModel.removeRow(row);
+        } else if (row < 0) {
+            itemModel.addRow(rowData);
+        } else {
+            for (int col = 1; col <= 3; col++) {
+                if (!rowData.get(col).equals(itemModel.getValueAt(row, col))) {
+                    itemModel.setValueAt(rowData.get(col), row, col);
+                }
+            }
         }
     }
 
+    private Vector<Object> itemRow(ResultSet rs) throws SQLException {
+        return itemRow(rs.getInt("id"), rs.getString("item_name"), rs.getInt("quantity"), rs.getDouble("price")); // Use item_name
+    }
+
+    private Vector<Object> itemRow(ItemCache.Item item) {
+        return itemRow(item.getId(), item.getName(), item.getQuantity(), item.getPrice());
+    }
+
+    private Vector<Object> itemRow(int id, String name, int quantity, double price) {
+        Vector<Object> row = new Vector<>(7);
+        row.add(id);
+        row.add(name);
+        row.add(quantity);
+        row.add(price);
+        row.add("Sell"); // Placeholder for button
+        row.add("Edit"); // Placeholder for button
+        row.add("Delete"); // Placeholder for button
+        return row;
+    }
+
+    // Resets the paged sales view; rows themselves are fetched page by page as the table scrolls.
     private void loadSales() {
-        salesModel.setRowCount(0); // Clear existing data
-        double totalRevenue = 0.0;
-        int totalQtySold = 0;
+        loader.submit("sales", this::fetchSalesSummary, summary -> {
+            salesModel.reset(summary.count);
+            applySalesSummary(summary);
+            if (salesDeltaRequested) {
+                salesDeltaRequested = false;
+                refreshSalesDelta();
+            }
+        }, e -> showDatabaseError("Error loading sales: ", e));
+    }
 
-        // Join with 'items' table to get item_name and price directly for revenue calculation
-        String query = "SELECT s.sale_id, i.item_name, s.quantity_sold, s.sale_time, i.price " +
-                "FROM sales s JOIN items i ON s.item_id = i.id ORDER BY s.sale_time DESC";
+    // Accounts for sales recorded since the last refresh instead of reloading the whole table.
+    private void refreshSalesDelta() {
+        if (loader.isPending("sales")) {
+            salesDeltaRequested = true;
+            return;
+        }
+        loader.submit("sales-delta", this::fetchSalesSummary, summary -> {
+            // Not the sale_id mark alone: a sale with a lower id can commit after a higher one was counted.
+            // The totals are updated in the sale's own transaction, so they change exactly when a sale commits.
+            if (summary.lastSaleId == lastSaleId && summary.count == salesModel.getRowCount()
+                    && summary.totalQtySold == totalQtySold && summary.totalRevenue == totalRevenue) {
+                return; // nothing new
+            }
+            int added = summary.count - salesModel.getRowCount();
+            if (added >= 0) {
+                salesModel.prependRows(added); // Newest first, so new sales go on top
+            } else {
+                salesModel.reset(summary.count); // Sales were removed with a deleted item
+            }
+            applySalesSummary(summary);
+        }, e -> showDatabaseError("Error refreshing sales: ", e));
+    }
 
+    private void applySalesSummary(SalesSummary summary) {
+        lastSaleId = summary.lastSaleId;
+        totalQtySold = summary.totalQtySold;
+        totalRevenue = summary.totalRevenue;
+        updateTotalLabels();
+    }
+
+    // Sales count and totals summed over the sales_totals slots kept up to date by SalesEngine:
+    // a few rows however many sales there are
+    private SalesSummary fetchSalesSummary() throws SQLException {
+        String query = "SELECT COALESCE(SUM(t.sale_count), 0) AS sale_count, COALESCE(SUM(t.total_qty), 0) AS total_qty, " +
+                "COALESCE(SUM(t.total_revenue), 0) AS total_revenue, " +
+                "(SELECT COALESCE(MAX(sale_id), 0) FROM sales) AS last_sale_id " +
+                "FROM sales_totals t";
+
+        SalesSummary summary = new SalesSummary();
         try (Connection conn = MyJDBC.getConnection();
              PreparedStatement ps = conn.prepareStatement(query);
              ResultSet rs = ps.executeQuery()) {
-
-            while (rs.next()) {
-                salesModel.addRow(new Object[]{
-                        rs.getInt("sale_id"),
-                        rs.getString("item_name"), // Use item_name from the join
-                        rs.getInt("quantity_sold"),
-                        rs.getTimestamp("sale_time")
-                });
-                // Calculate total revenue and quantity sold using the price directly from the joined table
-                int qty = rs.getInt("quantity_sold");
-                double price = rs.getDouble("price"); // Get price directly from joined result set
-                totalRevenue += qty * price;
-                totalQtySold += qty;
-            }
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(this, "Error loading sales: " + e.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE);
+            if (rs.next()) {
+                summary.count = rs.getInt("sale_count");
+                summary.totalQtySold = rs.getInt("total_qty");
+                summary.totalRevenue = rs.getDouble("total_revenue");
+                summary.lastSaleId = rs.getInt("last_sale_id");
+            }
         }
+        return summary;
+    }
+
+    private void updateTotalLabels() {
         totalQtyLabel.setText("Total Sold: " + totalQtySold);
         totalRevenueLabel.setText(String.format("Total Revenue: BDT %.2f", totalRevenue));
     }
 
+    // Swaps a model's rows in one go: a single table event instead of one per addRow()
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static void replaceRows(DefaultTableModel model, List<Vector<Object>> rows) {
+        Vector data = model.getDataVector();
+        data.clear();
+        data.addAll(rows);
+        model.fireTableDataChanged();
+    }
+
+    private void showDatabaseError(String prefix, Exception e) {
+        JOptionPane.showMessageDialog(this, prefix + e.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE);
+    }
+
+    // Result of an item load or delta, built off the EDT
+    private static final class ItemChanges {
+        private final List<Vector<Object>> rows = new ArrayList<>();
+        private final List<Integer> deletedIds = new ArrayList<>();
+        private Timestamp changedSince;
+        private long lastDeletionId;
+    }
+
+    // Sales count and totals, built off the EDT
+    private static final class SalesSummary {
+        private int count;
+        private int lastSaleId;
+        private int totalQtySold;
+        private double totalRevenue;
+    }
+
 
     private void updateItem(int itemId, String newName, int newQty, double newPrice) {
-        try (Connection conn = MyJDBC.getConnection()) {
-            // Use 'item_name' as per your SQL schema for the 'items' table
-            String query = "UPDATE items SET item_name=?, quantity=?, price=? WHERE id=?";
-            PreparedStatement ps = conn.prepareStatement(query);
-            ps.setString(1, newName);
-            ps.setInt(2, newQty);
-            ps.setDouble(3, newPrice);
-            ps.setInt(4, itemId);
-            int rowsAffected = ps.executeUpdate();
-            if (rowsAffected > 0) {
+        // Written through the item cache so its entry and the search index stay current
+        loader.execute(() -> itemCache.update(itemId, newName, newQty, newPrice), updated -> {
+            if (updated) {
                 JOptionPane.showMessageDialog(this, "Item updated successfully!", "Update Successful", JOptionPane.INFORMATION_MESSAGE);
+                refreshItemsDelta(); // Patch the edited row
             } else {
                 JOptionPane.showMessageDialog(this, "Item not found or no changes made.", "Update Failed", JOptionPane.WARNING_MESSAGE);
             }
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(this, "Error updating item: " + e.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE);
-        }
+        }, e -> showDatabaseError("Error updating item: ", e));
     }
 
     private void deleteItem(int itemId) {
-        try (Connection conn = MyJDBC.getConnection()) {
-            String query = "DELETE FROM items WHERE id=?";
-            PreparedStatement ps = conn.prepareStatement(query);
-            ps.setInt(1, itemId);
-            int rowsAffected = ps.executeUpdate();
-            if (rowsAffected > 0) {
+        // The item's sales rows go with it (ON DELETE CASCADE); ItemCache.delete takes them out of the totals first
+        loader.execute(() -> itemCache.delete(itemId), deleted -> {
+            if (deleted) {
                 JOptionPane.showMessageDialog(this, "Item deleted successfully!", "Delete Successful", JOptionPane.INFORMATION_MESSAGE);
+                refreshItemsDelta(); // Drops the deleted row
+                loadSales(); // Deleting an item cascades to its sales rows
             } else {
                 JOptionPane.showMessageDialog(this, "Item not found.", "Delete Failed", JOptionPane.WARNING_MESSAGE);
             }
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(this, "Error deleting item: " + e.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE);
-        }
+        }, e -> showDatabaseError("Error deleting item: ", e));
     }
 
     private void sellItem(int itemId, int qtyToSell) {
-        Connection conn = null; // Declare connection outside try-with-resources for rollback
-        try {
-            conn = MyJDBC.getConnection();
-            conn.setAutoCommit(false); // Start transaction
+        loader.execute(() -> SalesEngine.sell(itemId, qtyToSell), result -> {
+            switch (result.getStatus()) {
+                case SOLD:
+                    JOptionPane.showMessageDialog(this, "Item sold successfully!", "Sale Successful", JOptionPane.INFORMATION_MESSAGE);
+                    refreshSalesDelta(); // Only fetch the new sale rows
+                    break;
+                case INSUFFICIENT_STOCK:
+                    JOptionPane.showMessageDialog(this, "Not enough stock! Available: " + result.getAvailable(), "Stock Error", JOptionPane.WARNING_MESSAGE);
+                    break;
+                case NOT_FOUND:
+                    JOptionPane.showMessageDialog(this, "Item not found.", "Error", JOptionPane.ERROR_MESSAGE);
+                    break;
+            }
+            refreshItemRows(Collections.singletonList(itemId)); // Only the sold item changed
+        }, e -> {
+            if (e instanceof SQLException) {
+                JOptionPane.showMessageDialog(this, "Sell failed: " + e.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE);
+            } else {
+                JOptionPane.showMessageDialog(this, "An unexpected error occurred during sell: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+    }
 
-            // Check current quantity
-            PreparedStatement checkQtyPs = conn.prepareStatement("SELECT quantity FROM items WHERE id = ?");
-            checkQtyPs.setInt(1, itemId);
-            ResultSet rs = checkQtyPs.executeQuery();
+    // Sells every selected item row in one transaction, asking for a quantity per line.
+    private void checkoutSelected() {
+        int[] selectedRows = itemTable.getSelectedRows();
+        if (selectedRows.length == 0) {
+            JOptionPane.showMessageDialog(this, "Select one or more items to check out.", "Checkout", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
 
-            if (rs.next()) {
-                int currentQty = rs.getInt("quantity");
+        JPanel panel = new JPanel(new GridLayout(0, 2, 5, 5));
+        List<Integer> itemIds = new ArrayList<>();
+        List<JSpinner> qtySpinners = new ArrayList<>();
+        for (int viewRow : selectedRows) {
+            int row = itemTable.convertRowIndexToModel(viewRow);
+            itemIds.add(Integer.parseInt(itemModel.getValueAt(row, 0).toString()));
+            JSpinner qtySpinner = new JSpinner(new SpinnerNumberModel(1, 1, Integer.MAX_VALUE, 1));
+            qtySpinners.add(qtySpinner);
+            panel.add(new JLabel(itemModel.getValueAt(row, 1).toString()));
+            panel.add(qtySpinner);
+        }
 
-                if (currentQty < qtyToSell) {
-                    JOptionPane.showMessageDialog(this, "Not enough stock! Available: " + currentQty, "Stock Error", JOptionPane.WARNING_MESSAGE);
-                    return;
-                }
+        int result = JOptionPane.showConfirmDialog(this, panel, "Checkout", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (result != JOptionPane.OK_OPTION) return;
 
-                // Update item quantity
-                PreparedStatement updateQtyPs = conn.prepareStatement("UPDATE items SET quantity = ? WHERE id = ?");
-                updateQtyPs.setInt(1, currentQty - qtyToSell);
-                updateQtyPs.setInt(2, itemId);
-                updateQtyPs.executeUpdate();
-
-                // Log the sale
-                // Ensure column names match your 'sales' table schema ('item_id', 'quantity_sold')
-                PreparedStatement logSalePs = conn.prepareStatement("INSERT INTO sales (item_id, quantity_sold) VALUES (?, ?)");
-                logSalePs.setInt(1, itemId);
-                logSalePs.setInt(2, qtyToSell);
-                logSalePs.executeUpdate();
-
-                conn.commit(); // Commit transaction
-                JOptionPane.showMessageDialog(this, "Item sold successfully!", "Sale Successful", JOptionPane.INFORMATION_MESSAGE);
+        List<SaleLine> lines = new ArrayList<>();
+        for (int i = 0; i < itemIds.size(); i++) {
+            lines.add(new SaleLine(itemIds.get(i), (Integer) qtySpinners.get(i).getValue()));
+        }
+
+        loader.execute(() -> SalesEngine.checkout(lines), checkout -> {
+            if (checkout.isCommitted()) {
+                JOptionPane.showMessageDialog(this, "Checkout complete: " + lines.size() + " item(s) sold.", "Sale Successful", JOptionPane.INFORMATION_MESSAGE);
+                refreshSalesDelta();
             } else {
-                JOptionPane.showMessageDialog(this, "Item not found.", "Error", JOptionPane.ERROR_MESSAGE);
-            }
-        } catch (SQLException e) {
-            // Rollback on error
-            if (conn != null) {
-                try {
-                    conn.rollback();
-                } catch (SQLException ex) {
-                    System.err.println("Rollback failed: " + ex.getMessage());
+                StringBuilder message = new StringBuilder("Checkout cancelled, nothing was sold:\n");
+                for (SaleResult refused : checkout.getRefusedLines()) {
+                    message.append("Item ").append(refused.getItemId()).append(": ");
+                    if (refused.getStatus() == SaleResult.Status.NOT_FOUND) {
+                        message.append("not found\n");
+                    } else {
+                        message.append("only ").append(refused.getAvailable()).append(" in stock\n");
+                    }
                 }
+                JOptionPane.showMessageDialog(this, message.toString(), "Stock Error", JOptionPane.WARNING_MESSAGE);
+            }
+            refreshItemRows(itemIds);
+        }, e -> showDatabaseError("Checkout failed: ", e));
+    }
+
+    // Re-reads only the given items and patches their rows in itemModel in place.
+    // Rows whose item no longer exists are removed.
+    private void refreshItemRows(Collection<Integer> itemIds) {
+        if (itemIds.isEmpty()) return;
+
+        List<Integer> ids = new ArrayList<>(itemIds);
+        loader.execute(() -> {
+            try (Connection conn = MyJDBC.getConnection()) {
+                // Sold items were invalidated in the cache, so their rows come fresh from the database
+                return fetchItemRows(conn, ids);
             }
-            JOptionPane.showMessageDialog(this, "Sell failed: " + e.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE);
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(this, "An unexpected error occurred during sell: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-        } finally {
-            if (conn != null) {
-                try {
-                    conn.setAutoCommit(true); // Reset auto-commit state
-                    conn.close(); // Close the connection
-                } catch (SQLException e) {
-                    System.err.println("Error closing connection: " + e.getMessage());
+        }, rows -> {
+            List<Integer> missing = new ArrayList<>(itemIds);
+            for (Vector<Object> rowData : rows) {
+                int itemId = (Integer) rowData.get(0);
+                missing.remove(Integer.valueOf(itemId));
+                int row = findItemRow(itemId);
+                if (row < 0) continue; // Not shown under the current search
+                for (int col = 1; col <= 3; col++) {
+                    itemModel.setValueAt(rowData.get(col), row, col);
                 }
             }
+            for (int itemId : missing) {
+                int row = findItemRow(itemId);
+                if (row >= 0) itemModel.removeRow(row);
+            }
+        }, e -> showDatabaseError("Error refreshing items: ", e));
+    }
+
+    private int findItemRow(int itemId) {
+        for (int row = 0; row < itemModel.getRowCount(); row++) {
+            Object id = itemModel.getValueAt(row, 0);
+            if (id != null && Integer.parseInt(id.toString()) == itemId) return row;
         }
+        return -1;
     }
 
     private void exportSalesToCSV() {
@@ -609,31 +970,74 @@ public class DashboardGUI extends JFrame {
                 fileToSave = new File(fileToSave.getAbsolutePath() + ".csv");
             }
 
-            try (FileWriter fw = new FileWriter(fileToSave)) {
-                // Write header
-                for (int i = 0; i < salesModel.getColumnCount(); i++) {
-                    fw.append(salesModel.getColumnName(i));
-                    if (i < salesModel.getColumnCount() - 1) {
-                        fw.append(",");
-                    }
+            // Streams straight from the database: the table model only holds the pages on screen
+            File target = fileToSave;
+            loader.execute(() -> {
+                writeSalesCSV(target);
+                return target;
+            }, file -> JOptionPane.showMessageDialog(this, "Sales data exported to " + file.getAbsolutePath(), "Export Successful", JOptionPane.INFORMATION_MESSAGE),
+                    e -> JOptionPane.showMessageDialog(this, "Error exporting CSV: " + e.getMessage(), "Export Error", JOptionPane.ERROR_MESSAGE));
+        }
+    }
+
+    private void exportDayReceipts() {
+        String input = JOptionPane.showInputDialog(this, "Day to export (yyyy-mm-dd):", LocalDate.now().toString());
+        if (input == null) return;
+        LocalDate day;
+        try {
+            day = LocalDate.parse(input.trim());
+        } catch (DateTimeParseException e) {
+            JOptionPane.showMessageDialog(this, "Invalid date: " + input, "Export Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Export Receipts for " + day);
+        fileChooser.setSelectedFile(new File("receipts_" + day + ".pdf"));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File fileToSave = fileChooser.getSelectedFile();
+        if (!fileToSave.getAbsolutePath().endsWith(".pdf")) {
+            fileToSave = new File(fileToSave.getAbsolutePath() + ".pdf");
+        }
+
+        // One streamed PDF for the whole day, written off the EDT
+        File target = fileToSave;
+        loader.execute(() -> new ReceiptExport(ReceiptService.shared().getTemplate()).exportDay(day, target.toPath()),
+                count -> JOptionPane.showMessageDialog(this, count + " receipts exported to " + target.getAbsolutePath(), "Export Successful", JOptionPane.INFORMATION_MESSAGE),
+                e -> JOptionPane.showMessageDialog(this, "Error exporting receipts: " + e.getMessage(), "Export Error", JOptionPane.ERROR_MESSAGE));
+    }
+
+    private void writeSalesCSV(File file) throws IOException, SQLException {
+        String query = "SELECT s.sale_id, i.item_name, s.quantity_sold, s.sale_time " +
+                "FROM sales s JOIN items i ON s.item_id = i.id ORDER BY s.sale_time DESC, s.sale_id DESC";
+
+        try (FileWriter fw = new FileWriter(file);
+             Connection conn = MyJDBC.getConnection();
+             PreparedStatement ps = conn.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // Row-by-row streaming in Connector/J instead of buffering the whole result
+            ps.setFetchSize(Integer.MIN_VALUE);
+
+            // Write header
+            for (int i = 0; i < salesModel.getColumnCount(); i++) {
+                fw.append(salesModel.getColumnName(i));
+                if (i < salesModel.getColumnCount() - 1) {
+                    fw.append(",");
                 }
-                fw.append("\n");
-
-                // Write data
-                for (int i = 0; i < salesModel.getRowCount(); i++) {
-                    for (int j = 0; j < salesModel.getColumnCount(); j++) {
-                        // Handle null values to avoid NullPointerExceptions
-                        Object value = salesModel.getValueAt(i, j);
-                        fw.append(value != null ? value.toString() : "");
-                        if (j < salesModel.getColumnCount() - 1) {
-                            fw.append(",");
-                        }
-                    }
+            }
+            fw.append("\n");
+
+            // Write data
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    fw.append(String.valueOf(rs.getInt("sale_id"))).append(",");
+                    // Handle null values to avoid NullPointerExceptions
+                    String itemName = rs.getString("item_name");
+                    fw.append(itemName != null ? itemName : "").append(",");
+                    fw.append(String.valueOf(rs.getInt("quantity_sold"))).append(",");
+                    Timestamp saleTime = rs.getTimestamp("sale_time");
+                    fw.append(saleTime != null ? saleTime.toString() : "");
                     fw.append("\n");
                 }
-                JOptionPane.showMessageDialog(this, "Sales data exported to " + fileToSave.getAbsolutePath(), "Export Successful", JOptionPane.INFORMATION_MESSAGE);
-            } catch (IOException e) {
-                JOptionPane.showMessageDialog(this, "Error exporting CSV: " + e.getMessage(), "Export Error", JOptionPane.ERROR_MESSAGE);
             }
         }
     }
@@ -0,0 +1,226 @@
+package guis;
+
+import db.MyJDBC;
+
+import javax.swing.table.AbstractTableModel;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Lazily paged view of the sales history, newest first.
+// Only the row count is known up front; pages of rows are fetched in the background the first
+// time the table asks for a cell in them, using keyset pagination on (sale_time, sale_id).
+// A bounded LRU keeps memory flat however long the sales history gets.
+class PagedSalesTableModel extends AbstractTableModel {
+    private static final String[] COLUMNS = {"Sale ID", "Item Name", "Qty Sold", "Time"};
+
+    private static final String PAGE_QUERY =
+            "SELECT s.sale_id, i.item_name, s.quantity_sold, s.sale_time " +
+            "FROM sales s JOIN items i ON s.item_id = i.id ";
+    private static final String AFTER_KEY =
+            "WHERE s.sale_time < ? OR (s.sale_time = ? AND s.sale_id < ?) ";
+    private static final String ORDER =
+            "ORDER BY s.sale_time DESC, s.sale_id DESC LIMIT ?";
+    // Walks the (sale_time, sale_id) index alone to find where a far-away page starts
+    private static final String SKIP_QUERY =
+            "SELECT s.sale_time, s.sale_id FROM sales s " + AFTER_KEY +
+            "ORDER BY s.sale_time DESC, s.sale_id DESC LIMIT 1 OFFSET ?";
+    private static final String FIRST_SKIP_QUERY =
+            "SELECT s.sale_time, s.sale_id FROM sales s " +
+            "ORDER BY s.sale_time DESC, s.sale_id DESC LIMIT 1 OFFSET ?";
+
+    private final AsyncLoader loader;
+    private final int pageSize;
+    private final Map<Integer, Page> pages;
+    // Last key of each page seen so far: the keyset anchor for the page after it
+    private final TreeMap<Integer, Key> pageEnds = new TreeMap<>();
+    private final Set<Integer> loading = new HashSet<>();
+    private int rowCount;
+    // Bumped on every reset so pages fetched for the old data are dropped
+    private int generation;
+
+    PagedSalesTableModel(AsyncLoader loader, int pageSize, int maxCachedPages) {
+        this.loader = loader;
+        this.pageSize = pageSize;
+        this.pages = new LinkedHashMap<Integer, Page>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+                return size() > maxCachedPages;
+            }
+        };
+    }
+
+    // Forgets all cached pages and shows rowCount rows from the newest sale.
+    void reset(int rowCount) {
+        this.rowCount = rowCount;
+        generation++;
+        pages.clear();
+        pageEnds.clear();
+        loading.clear();
+        fireTableDataChanged();
+    }
+
+    // New sales land at the top, shifting every row down, so cached pages no longer line up.
+    void prependRows(int count) {
+        if (count > 0) reset(rowCount + count);
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        switch (column) {
+            case 0:
+            case 2:
+                return Integer.class;
+            case 3:
+                return Timestamp.class;
+            default:
+                return String.class;
+        }
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        int pageIndex = row / pageSize;
+        Page page = pages.get(pageIndex);
+        if (page == null) {
+            requestPage(pageIndex);
+            return column == 1 ? "Loading..." : null;
+        }
+        int offset = row - pageIndex * pageSize;
+        if (offset >= page.size) return null; // rows deleted since the count was taken
+        switch (column) {
+            case 0:
+                return page.saleIds[offset];
+            case 1:
+                return page.itemNames[offset];
+            case 2:
+                return page.quantities[offset];
+            default:
+                return new Timestamp(page.saleTimes[offset]);
+        }
+    }
+
+    private void requestPage(int pageIndex) {
+        if (!loading.add(pageIndex)) return;
+
+        int requestGeneration = generation;
+        // Start from the nearest page boundary we already know; sequential scrolling always has an exact anchor
+        Map.Entry<Integer, Key> anchorEntry = pageEnds.floorEntry(pageIndex - 1);
+        Key anchor = anchorEntry == null ? null : anchorEntry.getValue();
+        int skip = (pageIndex - (anchorEntry == null ? 0 : anchorEntry.getKey() + 1)) * pageSize;
+
+        loader.submit("sales-page-" + pageIndex, () -> fetchPage(anchor, skip), page -> {
+            if (requestGeneration != generation) return;
+            loading.remove(pageIndex);
+            pages.put(pageIndex, page);
+            if (page.size > 0) {
+                pageEnds.put(pageIndex, new Key(page.saleTimes[page.size - 1], page.saleIds[page.size - 1]));
+            }
+            int first = pageIndex * pageSize;
+            int last = Math.min(rowCount, first + pageSize) - 1;
+            if (first <= last) fireTableRowsUpdated(first, last);
+        }, e -> {
+            loading.remove(pageIndex);
+            System.err.println("Error loading sales page " + pageIndex + ": " + e.getMessage());
+        });
+    }
+
+    private Page fetchPage(Key anchor, int skip) throws SQLException {
+        try (Connection conn = MyJDBC.getConnection()) {
+            if (skip > 0) {
+                anchor = skipFrom(conn, anchor, skip);
+                if (anchor == null) return new Page(0);
+            }
+
+            String sql = PAGE_QUERY + (anchor != null ? AFTER_KEY : "") + ORDER;
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                int index = 1;
+                if (anchor != null) {
+                    Timestamp time = new Timestamp(anchor.saleTime);
+                    ps.setTimestamp(index++, time);
+                    ps.setTimestamp(index++, time);
+                    ps.setInt(index++, anchor.saleId);
+                }
+                ps.setInt(index, pageSize);
+
+                Page page = new Page(pageSize);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        int i = page.size++;
+                        page.saleIds[i] = rs.getInt("sale_id");
+                        page.itemNames[i] = rs.getString("item_name");
+                        page.quantities[i] = rs.getInt("quantity_sold");
+                        page.saleTimes[i] = rs.getTimestamp("sale_time").getTime();
+                    }
+                }
+                return page;
+            }
+        }
+    }
+
+    // Returns the key of the row just before the requested page, or null if the history is shorter
+    private Key skipFrom(Connection conn, Key anchor, int skip) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(anchor != null ? SKIP_QUERY : FIRST_SKIP_QUERY)) {
+            int index = 1;
+            if (anchor != null) {
+                Timestamp time = new Timestamp(anchor.saleTime);
+                ps.setTimestamp(index++, time);
+                ps.setTimestamp(index++, time);
+                ps.setInt(index++, anchor.saleId);
+            }
+            ps.setInt(index, skip - 1);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? new Key(rs.getTimestamp(1).getTime(), rs.getInt(2)) : null;
+            }
+        }
+    }
+
+    // Position in the (sale_time DESC, sale_id DESC) ordering
+    private static final class Key {
+        private final long saleTime;
+        private final int saleId;
+
+        private Key(long saleTime, int saleId) {
+            this.saleTime = saleTime;
+            this.saleId = saleId;
+        }
+    }
+
+    // One page stored column-wise, so a page is a few arrays rather than pageSize boxed rows
+    private static final class Page {
+        private final int[] saleIds;
+        private final String[] itemNames;
+        private final int[] quantities;
+        private final long[] saleTimes;
+        private int size;
+
+        private Page(int capacity) {
+            saleIds = new int[capacity];
+            itemNames = new String[capacity];
+            quantities = new int[capacity];
+            saleTimes = new long[capacity];
+        }
+    }
+}
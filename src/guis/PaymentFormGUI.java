@@ -2,28 +2,32 @@
 
 package guis;
 
-import db.MyJDBC;
+import constants.CommonConstants;
+import db.PaymentEngine;
+import db.PaymentRequest;
+import receipts.ReceiptService;
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.Font;
 import java.awt.event.*;
-import java.io.FileOutputStream;
-import java.sql.*;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import com.itextpdf.text.*;
-import com.itextpdf.text.pdf.*;
+import java.util.UUID;
 
 public class PaymentFormGUI extends JFrame {
     private JComboBox<String> paymentTypeBox;
     private JTextField amountField, accountNumberField, cardNumberField, cvvField;
     private JSpinner expiryField;
     private JLabel accountLabel, cardNumberLabel, cvvLabel, expiryLabel;
-    private JButton submitBtn;
+    private JButton submitBtn, reprintBtn;
     private JTable historyTable;
-    private DefaultTableModel historyModel;
+    private PaymentHistoryModel historyModel;
+    private final AsyncLoader loader = new AsyncLoader("payment-db", 2);
     private String username;
+    // Idempotency key of the payment being submitted, and the fields it was made for. It is kept until that
+    // payment is confirmed, so a retry of the same payment reuses it; a changed payment gets a new key.
+    private String pendingKey;
+    private String pendingFields;
 
     public PaymentFormGUI(String username) {
         this.username = username;
@@ -105,19 +109,44 @@ public class PaymentFormGUI extends JFrame {
         historyPanel.setBackground(mainBg);
         historyPanel.setBorder(BorderFactory.createTitledBorder("Payment History"));
 
-        historyModel = new DefaultTableModel(new String[]{"ID", "Amount", "Type", "Time"}, 0);
+        historyModel = new PaymentHistoryModel(loader, username, CommonConstants.PAYMENT_HISTORY_PAGE_SIZE);
         historyTable = new JTable(historyModel);
         JScrollPane scroll = new JScrollPane(historyTable);
+        // Older payments are fetched a page at a time as the table is scrolled to the bottom
+        scroll.getVerticalScrollBar().addAdjustmentListener(e -> {
+            JScrollBar bar = (JScrollBar) e.getAdjustable();
+            if (historyModel.hasMore() && bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - historyTable.getRowHeight() * 5) {
+                historyModel.loadOlder();
+            }
+        });
         historyPanel.add(scroll, BorderLayout.CENTER);
 
+        reprintBtn = new JButton("Reprint Receipt");
+        reprintBtn.setBackground(accent);
+        reprintBtn.setForeground(Color.WHITE);
+        JPanel historyButtons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        historyButtons.setBackground(mainBg);
+        historyButtons.add(reprintBtn);
+        historyPanel.add(historyButtons, BorderLayout.SOUTH);
+
         add(formPanel, BorderLayout.WEST);
         add(historyPanel, BorderLayout.CENTER);
 
         hideAllDynamicFields();
         paymentTypeBox.addActionListener(e -> updateDynamicFields());
         submitBtn.addActionListener(e -> handlePaymentSubmit());
+        reprintBtn.addActionListener(e -> reprintSelected());
+
+        historyModel.open();
+        // Starts rendering receipts from the payment outbox, including any left over from earlier runs
+        loader.execute(ReceiptService::shared, service -> { },
+                e -> System.err.println("Receipt service unavailable: " + e.getMessage()));
+    }
 
-        loadPaymentHistory();
+    @Override
+    public void dispose() {
+        loader.shutdown();
+        super.dispose();
     }
 
     private void hideAllDynamicFields() {
@@ -147,25 +176,6 @@ public class PaymentFormGUI extends JFrame {
         }
     }
 
-    private void loadPaymentHistory() {
-        try (Connection conn = MyJDBC.getConnection()) {
-            historyModel.setRowCount(0);
-            PreparedStatement ps = conn.prepareStatement("SELECT id, amount, payment_type, payment_time FROM payments WHERE username = ? ORDER BY payment_time DESC");
-            ps.setString(1, username);
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                historyModel.addRow(new Object[]{
-                        rs.getInt("id"),
-                        rs.getDouble("amount"),
-                        rs.getString("payment_type"),
-                        rs.getTimestamp("payment_time")
-                });
-            }
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(this, "Failed to load payment history: " + e.getMessage());
-        }
-    }
-
     private void handlePaymentSubmit() {
         String amountStr = amountField.getText();
         String type = paymentTypeBox.getSelectedItem().toString();
@@ -193,43 +203,57 @@ public class PaymentFormGUI extends JFrame {
                     throw new Exception("Card expired!");
             }
 
-            try (Connection conn = MyJDBC.getConnection()) {
-                PreparedStatement ps = conn.prepareStatement("INSERT INTO payments (username, payment_type, amount, account_number, card_number, cvv, expiry_date) VALUES (?, ?, ?, ?, ?, ?, ?)");
-                ps.setString(1, username);
-                ps.setString(2, type);
-                ps.setDouble(3, amount);
-                ps.setString(4, acc);
-                ps.setString(5, card);
-                ps.setString(6, cvv);
-                ps.setString(7, expiry);
-                ps.executeUpdate();
+            String fields = String.join("\0", type, amountStr, String.valueOf(acc), String.valueOf(card),
+                    String.valueOf(cvv), String.valueOf(expiry));
+            if (pendingKey == null || !fields.equals(pendingFields)) {
+                pendingKey = UUID.randomUUID().toString();
+                pendingFields = fields;
             }
-
-            createPDFReport(amount, type, acc, card);
-            JOptionPane.showMessageDialog(this, "Payment Successful! PDF Receipt Generated.");
-            loadPaymentHistory();
+            // Whole seconds, as stored in payment_time, so the history and the receipt agree with the database
+            long paidAt = System.currentTimeMillis() / 1000 * 1000;
+            PaymentRequest request = new PaymentRequest(pendingKey, username, type, amount, acc, card, cvv, expiry, paidAt);
+
+            // One short transaction off the EDT; the receipt follows from the payment outbox
+            submitBtn.setEnabled(false);
+            loader.execute(() -> PaymentEngine.record(request), result -> {
+                submitBtn.setEnabled(true);
+                if (request.getIdempotencyKey().equals(pendingKey)) pendingKey = null;
+                historyModel.addPayment(result.getPaymentId(), amount, type, result.getPaidAt());
+                JOptionPane.showMessageDialog(this, result.isDuplicate()
+                        ? "This payment was already recorded (payment " + result.getPaymentId() + "); it was not charged again."
+                        : "Payment Successful! PDF receipt is being generated.");
+            }, e -> {
+                submitBtn.setEnabled(true);
+                JOptionPane.showMessageDialog(this, "Payment Failed: " + e.getMessage()
+                        + "\nSubmitting the same payment again is safe: it will not be recorded twice.");
+            });
         } catch (Exception e) {
             JOptionPane.showMessageDialog(this, "Payment Failed: " + e.getMessage());
         }
     }
 
-    private void createPDFReport(double amount, String type, String acc, String card) {
+    // Opens the stored receipt of the selected payment, rendering it first if it was never stored
+    private void reprintSelected() {
+        int row = historyTable.getSelectedRow();
+        if (row < 0) {
+            JOptionPane.showMessageDialog(this, "Select a payment first.");
+            return;
+        }
+        long paymentId = ((Number) historyModel.getValueAt(historyTable.convertRowIndexToModel(row), 0)).longValue();
         try {
-            Document doc = new Document();
-            String fileName = "payment_receipt_" + System.currentTimeMillis() + ".pdf";
-            PdfWriter.getInstance(doc, new FileOutputStream(fileName));
-            doc.open();
-            doc.addTitle("Payment Receipt");
-            doc.add(new Paragraph("EasyTech Bookstore Payment Receipt", FontFactory.getFont(FontFactory.HELVETICA_BOLD, 18)));
-            doc.add(new Paragraph("\nUsername: " + username));
-            doc.add(new Paragraph("Amount: BDT " + amount));
-            doc.add(new Paragraph("Type: " + type));
-            if (acc != null) doc.add(new Paragraph("Account No: " + acc));
-            if (card != null) doc.add(new Paragraph("Card No: " + card));
-            doc.add(new Paragraph("Time: " + new SimpleDateFormat("dd-MM-yyyy HH:mm:ss").format(new Date())));
-            doc.close();
+            ReceiptService.shared().receiptFor(paymentId).whenComplete((path, error) -> SwingUtilities.invokeLater(() -> {
+                if (error != null) {
+                    JOptionPane.showMessageDialog(this, "Failed to reprint receipt: " + error.getMessage());
+                    return;
+                }
+                try {
+                    Desktop.getDesktop().open(path.toFile());
+                } catch (Exception e) {
+                    JOptionPane.showMessageDialog(this, "Receipt saved at " + path.toAbsolutePath());
+                }
+            }));
         } catch (Exception e) {
-            JOptionPane.showMessageDialog(this, "Failed to generate PDF: " + e.getMessage());
+            JOptionPane.showMessageDialog(this, "Failed to reprint receipt: " + e.getMessage());
         }
     }
 }
@@ -0,0 +1,225 @@
+package guis;
+
+import constants.CommonConstants;
+import db.MyJDBC;
+
+import javax.swing.table.AbstractTableModel;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// One user's payment history, newest first, fetched a page at a time with keyset pagination
+// on (payment_time, id) over the (username, payment_time, id) index.
+// Rows already fetched stay in a per-user cache that outlives the payment window: reopening it
+// shows them at once and only asks the database for payments newer than the newest one it has read,
+// and a payment made in the window is put on top of the cache instead of reloading the history.
+// A payment made here does not count as read: one committed at another till just before it would
+// otherwise never be fetched.
+// The model and the cache are only touched on the EDT; queries run on the AsyncLoader.
+class PaymentHistoryModel extends AbstractTableModel {
+    private static final String[] COLUMNS = {"ID", "Amount", "Type", "Time"};
+
+    private static final String SELECT =
+            "SELECT id, amount, payment_type, payment_time FROM payments WHERE username = ? ";
+    private static final String OLDER_PAGE = SELECT +
+            "AND (payment_time < ? OR (payment_time = ? AND id < ?)) ORDER BY payment_time DESC, id DESC LIMIT ?";
+    private static final String FIRST_PAGE = SELECT +
+            "ORDER BY payment_time DESC, id DESC LIMIT ?";
+    private static final String NEWER = SELECT +
+            "AND (payment_time > ? OR (payment_time = ? AND id > ?)) ORDER BY payment_time DESC, id DESC LIMIT ?";
+
+    // Users whose history is cached; the least recently opened is dropped first
+    private static final Map<String, History> CACHE = new LinkedHashMap<String, History>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, History> eldest) {
+            return size() > CommonConstants.PAYMENT_HISTORY_CACHED_USERS;
+        }
+    };
+
+    private final AsyncLoader loader;
+    private final String username;
+    private final int pageSize;
+    private final History history;
+
+    PaymentHistoryModel(AsyncLoader loader, String username, int pageSize) {
+        this.loader = loader;
+        this.username = username;
+        this.pageSize = pageSize;
+        this.history = CACHE.computeIfAbsent(username, user -> new History());
+    }
+
+    // Shows the cached rows and brings them up to date: the first page for a user not seen before,
+    // otherwise only the payments made since (e.g. at another till).
+    void open() {
+        if (!history.loaded) {
+            loadOlder();
+            return;
+        }
+        Row readThrough = history.readThrough;
+        loader.submit("payments-newer", () -> readThrough != null ? fetchNewer(readThrough) : fetchOlder(null), newer -> {
+            if (newer.size() == pageSize) {
+                // Too far behind to patch; start over from the newest page
+                history.rows.clear();
+                history.complete = false;
+                history.loaded = false;
+                history.readThrough = null;
+                fireTableDataChanged();
+                loadOlder();
+                return;
+            }
+            for (Row row : newer) {
+                merge(row);
+            }
+            if (!newer.isEmpty()) history.readThrough = newer.get(0);
+        }, e -> System.err.println("Error refreshing payment history: " + e.getMessage()));
+    }
+
+    // Adds a payment just made in this window, without going to the database
+    void addPayment(long id, double amount, String type, long paidAt) {
+        merge(new Row(id, amount, type, paidAt));
+    }
+
+    // Fetches the next page of older payments, unless one is on its way or there are no more
+    void loadOlder() {
+        if (history.complete || loader.isPending("payments-older")) return;
+        Row oldest = history.rows.isEmpty() ? null : history.rows.get(history.rows.size() - 1);
+        loader.submit("payments-older", () -> fetchOlder(oldest), page -> {
+            if (page.size() < pageSize) history.complete = true;
+            if (oldest == null) {
+                history.loaded = true;
+                if (!page.isEmpty()) history.readThrough = page.get(0);
+            }
+            int first = history.rows.size();
+            // A payment made here while the first page was on its way is already on top
+            if (first > 0) page.removeIf(row -> !history.rows.get(first - 1).isAfter(row));
+            history.rows.addAll(page);
+            if (!page.isEmpty()) fireTableRowsInserted(first, history.rows.size() - 1);
+        }, e -> System.err.println("Error loading payment history: " + e.getMessage()));
+    }
+
+    boolean hasMore() {
+        return !history.complete;
+    }
+
+    @Override
+    public int getRowCount() {
+        return history.rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        switch (column) {
+            case 0:
+                return Long.class;
+            case 1:
+                return Double.class;
+            case 3:
+                return Timestamp.class;
+            default:
+                return String.class;
+        }
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Row payment = history.rows.get(row);
+        switch (column) {
+            case 0:
+                return payment.id;
+            case 1:
+                return payment.amount;
+            case 2:
+                return payment.type;
+            default:
+                return new Timestamp(payment.time);
+        }
+    }
+
+    // Puts a new payment in its place near the top, unless it is already shown
+    // (a payment made here also comes back from the next refresh)
+    private void merge(Row row) {
+        int index = 0;
+        while (index < history.rows.size() && history.rows.get(index).isAfter(row)) index++;
+        if (index < history.rows.size() && history.rows.get(index).id == row.id) return;
+        history.rows.add(index, row);
+        fireTableRowsInserted(index, index);
+    }
+
+    private List<Row> fetchOlder(Row anchor) throws SQLException {
+        try (Connection conn = MyJDBC.getConnection();
+             PreparedStatement ps = conn.prepareStatement(anchor != null ? OLDER_PAGE : FIRST_PAGE)) {
+            return fetch(ps, anchor);
+        }
+    }
+
+    private List<Row> fetchNewer(Row anchor) throws SQLException {
+        try (Connection conn = MyJDBC.getConnection();
+             PreparedStatement ps = conn.prepareStatement(NEWER)) {
+            return fetch(ps, anchor);
+        }
+    }
+
+    private List<Row> fetch(PreparedStatement ps, Row anchor) throws SQLException {
+        int index = 1;
+        ps.setString(index++, username);
+        if (anchor != null) {
+            Timestamp time = new Timestamp(anchor.time);
+            ps.setTimestamp(index++, time);
+            ps.setTimestamp(index++, time);
+            ps.setLong(index++, anchor.id);
+        }
+        ps.setInt(index, pageSize);
+        List<Row> rows = new ArrayList<>(pageSize);
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                rows.add(new Row(rs.getLong("id"), rs.getDouble("amount"), rs.getString("payment_type"),
+                        rs.getTimestamp("payment_time").getTime()));
+            }
+        }
+        return rows;
+    }
+
+    // A user's fetched payments, newest first; complete once the oldest payment has been fetched.
+    // readThrough is the newest payment read from the database; none older than it is missing from rows.
+    private static final class History {
+        private final List<Row> rows = new ArrayList<>();
+        private boolean loaded;
+        private boolean complete;
+        private Row readThrough;
+    }
+
+    private static final class Row {
+        private final long id;
+        private final double amount;
+        private final String type;
+        private final long time;
+
+        private Row(long id, double amount, String type, long time) {
+            this.id = id;
+            this.amount = amount;
+            this.type = type;
+            this.time = time;
+        }
+
+        // Newer: a later payment_time, or the same time and a higher id
+        private boolean isAfter(Row other) {
+            return time > other.time || (time == other.time && id > other.id);
+        }
+    }
+}
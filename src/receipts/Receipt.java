@@ -0,0 +1,54 @@
+package receipts;
+
+// The variable fields of one payment receipt; everything else on the page comes from ReceiptTemplate.
+public class Receipt {
+    private final long paymentId;
+    private final String username;
+    private final double amount;
+    private final String paymentType;
+    // Exactly one of these is set: mobile wallets have an account number, cards a card number
+    private final String accountNumber;
+    private final String cardNumber;
+    private final long paidAt;
+
+    public Receipt(long paymentId, String username, double amount, String paymentType,
+                   String accountNumber, String cardNumber, long paidAt) {
+        this.paymentId = paymentId;
+        this.username = username;
+        this.amount = amount;
+        this.paymentType = paymentType;
+        this.accountNumber = accountNumber;
+        this.cardNumber = cardNumber;
+        this.paidAt = paidAt;
+    }
+
+    // payments.id of the payment this receipt is for
+    public long getPaymentId() {
+        return paymentId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public double getAmount() {
+        return amount;
+    }
+
+    public String getPaymentType() {
+        return paymentType;
+    }
+
+    public String getAccountNumber() {
+        return accountNumber;
+    }
+
+    public String getCardNumber() {
+        return cardNumber;
+    }
+
+    // Epoch millis
+    public long getPaidAt() {
+        return paidAt;
+    }
+}
@@ -0,0 +1,97 @@
+package receipts;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.Font;
+import com.itextpdf.text.FontFactory;
+import com.itextpdf.text.Paragraph;
+import com.itextpdf.text.pdf.PdfWriter;
+import db.MyJDBC;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.TreeMap;
+
+// End-of-day export: every payment of one day as a receipt page of a single PDF, followed by a statement page
+// with the day's totals. Rows are streamed from the database and each page is written out as soon as it is
+// finished, so memory use does not grow with the number of payments; only the per-type totals are kept.
+// Full compression packs the per-page objects into compressed object streams, which keeps a file of
+// thousands of near-identical pages small.
+public class ReceiptExport {
+    private static final String DAY_PAYMENTS =
+            "SELECT id, username, amount, payment_type, account_number, card_number, payment_time " +
+            "FROM payments WHERE payment_time >= ? AND payment_time < ? ORDER BY payment_time, id";
+
+    private final ReceiptTemplate template;
+
+    public ReceiptExport(ReceiptTemplate template) {
+        this.template = template;
+    }
+
+    // Writes the day's receipts and statement to target. Returns the number of payments exported.
+    public int exportDay(LocalDate day, Path target) throws IOException, SQLException, DocumentException {
+        Path partial = target.resolveSibling(target.getFileName() + ".part");
+        int count;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(partial), 64 * 1024);
+             Connection conn = MyJDBC.getConnection();
+             PreparedStatement ps = conn.prepareStatement(DAY_PAYMENTS, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // Row-by-row streaming in Connector/J instead of buffering the whole result
+            ps.setFetchSize(Integer.MIN_VALUE);
+            ps.setTimestamp(1, Timestamp.valueOf(day.atStartOfDay()));
+            ps.setTimestamp(2, Timestamp.valueOf(day.plusDays(1).atStartOfDay()));
+            try (ResultSet rs = ps.executeQuery()) {
+                count = write(day, rs, out);
+            }
+        }
+        Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    private int write(LocalDate day, ResultSet rs, OutputStream out) throws SQLException, DocumentException {
+        Document doc = new Document(template.getPageSize(), 36, 36, 54, 36);
+        PdfWriter writer = PdfWriter.getInstance(doc, out);
+        writer.setFullCompression();
+        writer.setCloseStream(false);
+        doc.open();
+        doc.addTitle("Payment Receipts " + day);
+
+        int count = 0;
+        double total = 0;
+        // Payment type -> {count, amount}
+        Map<String, double[]> byType = new TreeMap<>();
+        while (rs.next()) {
+            Receipt receipt = new Receipt(rs.getLong("id"), rs.getString("username"), rs.getDouble("amount"),
+                    rs.getString("payment_type"), rs.getString("account_number"), rs.getString("card_number"),
+                    rs.getTimestamp("payment_time").getTime());
+            if (count > 0) doc.newPage(); // Ends the previous page, which the writer then sends to the stream
+            template.drawPage(writer, receipt);
+            count++;
+            total += receipt.getAmount();
+            double[] typeTotals = byType.computeIfAbsent(receipt.getPaymentType(), type -> new double[2]);
+            typeTotals[0]++;
+            typeTotals[1] += receipt.getAmount();
+        }
+
+        if (count > 0) doc.newPage();
+        doc.add(new Paragraph("EasyTech Bookstore Statement for " + day, FontFactory.getFont(FontFactory.HELVETICA_BOLD, 18)));
+        doc.add(new Paragraph("\nPayments: " + count));
+        doc.add(new Paragraph("Total: BDT " + String.format("%.2f", total)));
+        for (Map.Entry<String, double[]> type : byType.entrySet()) {
+            doc.add(new Paragraph(type.getKey() + ": " + (long) type.getValue()[0] + " payments, BDT "
+                    + String.format("%.2f", type.getValue()[1]), FontFactory.getFont(FontFactory.HELVETICA, 12, Font.NORMAL)));
+        }
+        doc.close();
+        return count;
+    }
+}
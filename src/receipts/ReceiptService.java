@@ -0,0 +1,160 @@
+package receipts;
+
+import com.itextpdf.text.DocumentException;
+import constants.CommonConstants;
+import db.PaymentOutbox;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Renders payment receipts to PDF files in the background.
+// A fixed pool of workers takes receipts from a bounded queue, so a payment only has to enqueue its receipt;
+// when the queue is full the receipt is refused at once rather than the caller (usually the EDT) blocking.
+// Files are written under a temporary name and moved into place, so a reader never sees half a receipt,
+// and are then recorded in the ReceiptStore; a receipt already stored with the same contents is not rendered again.
+// The shared service renders the receipt of every payment recorded through the PaymentOutbox.
+public class ReceiptService {
+    private static ReceiptService shared;
+
+    private final ReceiptTemplate template;
+    private final ReceiptStore store;
+    private final ThreadPoolExecutor executor;
+    private final LongAdder rendered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+
+    // Work run on a renderer thread
+    private interface Task {
+        Path run() throws Exception;
+    }
+
+    public ReceiptService(ReceiptTemplate template, ReceiptStore store, int threads, int queueCapacity) {
+        this.template = template;
+        this.store = store;
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+            Thread t = new Thread(r, "receipt-renderer-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Created on first use: building the template and fonts is only worth it once a payment is made
+    public static synchronized ReceiptService shared() throws IOException {
+        if (shared == null) {
+            try {
+                shared = new ReceiptService(new ReceiptTemplate(), new ReceiptStore(Path.of(CommonConstants.RECEIPT_DIRECTORY)),
+                        CommonConstants.RECEIPT_THREADS, CommonConstants.RECEIPT_QUEUE_CAPACITY);
+            } catch (DocumentException e) {
+                throw new IOException("Cannot build receipt template: " + e.getMessage(), e);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(shared::shutdown, "receipt-service-shutdown"));
+            // receiptFor is idempotent, as outbox handlers must be
+            PaymentOutbox.shared().subscribe(shared::receiptFor);
+        }
+        return shared;
+    }
+
+    // Queues a receipt. The future completes with the PDF's path, or exceptionally if the queue is full
+    // or rendering fails.
+    public CompletableFuture<Path> submit(Receipt receipt) {
+        return enqueue(() -> write(receipt));
+    }
+
+    // Queues a lookup of a payment's stored receipt, rendered from the payments table if it has none.
+    // Used for reprints and for new payments. The future completes with the PDF's path.
+    public CompletableFuture<Path> receiptFor(long paymentId) {
+        return enqueue(() -> {
+            ReceiptStore.Entry stored = store.find(paymentId);
+            if (stored != null) return stored.getPath();
+            Receipt receipt = store.loadPayment(paymentId);
+            if (receipt == null) throw new IOException("No payment with id " + paymentId);
+            return write(receipt);
+        });
+    }
+
+    private CompletableFuture<Path> enqueue(Task task) {
+        CompletableFuture<Path> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(task.run());
+                } catch (Exception e) {
+                    failed.increment();
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            failed.increment();
+            result.completeExceptionally(new IOException("Receipt queue is full", e));
+        }
+        return result;
+    }
+
+    private Path write(Receipt receipt) throws Exception {
+        Path existing = store.findUnchanged(receipt);
+        if (existing != null) {
+            deduplicated.increment();
+            return existing;
+        }
+        Path target = store.pathFor(receipt);
+        Files.createDirectories(target.getParent());
+        Path partial = target.resolveSibling(target.getFileName() + ".part");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(partial), 16 * 1024)) {
+            template.render(receipt, out);
+        }
+        Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        rendered.increment();
+        store.index(receipt, target);
+        return target;
+    }
+
+    public ReceiptStore getStore() {
+        return store;
+    }
+
+    public ReceiptTemplate getTemplate() {
+        return template;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public long getRenderedCount() {
+        return rendered.sum();
+    }
+
+    // Receipts not rendered because an identical one was already stored
+    public long getDeduplicatedCount() {
+        return deduplicated.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    // Finishes the receipts already queued, waiting up to a few seconds
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                System.err.println("Receipt service stopped with " + executor.getQueue().size() + " receipts unwritten");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package receipts;
+
+import db.MyJDBC;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+// Where receipt PDFs live on disk, and the receipt_index table that maps a payment id to its file.
+// Files are sharded by payment date and then by a hash of the payment id -
+// <root>/yyyy/MM/dd/<2 hex digits>/payment_receipt_<id>.pdf - so no directory grows past a few hundred
+// entries a day, and a day's receipts can be backed up or pruned as one directory.
+// The index also keeps a SHA-256 of the receipt's fields: a receipt queued again with unchanged contents
+// (e.g. a retried submit or a reprint) is served from the existing file instead of being rendered again.
+public class ReceiptStore {
+    private static final String FIND =
+            "SELECT path, content_hash FROM receipt_index WHERE payment_id = ?";
+    private static final String UPSERT =
+            "INSERT INTO receipt_index (payment_id, path, content_hash) VALUES (?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE path = VALUES(path), content_hash = VALUES(content_hash)";
+    private static final String PAYMENT =
+            "SELECT id, username, amount, payment_type, account_number, card_number, payment_time FROM payments WHERE id = ?";
+
+    private static final DateTimeFormatter DAY_DIRECTORIES =
+            DateTimeFormatter.ofPattern("yyyy/MM/dd").withZone(ZoneId.systemDefault());
+
+    private final Path root;
+
+    public ReceiptStore(Path root) {
+        this.root = root;
+    }
+
+    // An indexed receipt file
+    public static final class Entry {
+        private final Path path;
+        private final String contentHash;
+
+        Entry(Path path, String contentHash) {
+            this.path = path;
+            this.contentHash = contentHash;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+    }
+
+    // Where a new receipt for this payment is written
+    public Path pathFor(Receipt receipt) {
+        long id = receipt.getPaymentId();
+        // Spreads consecutive ids over the shards; the low byte alone would fill them one after another
+        int shard = (int) ((id * 0x9E3779B97F4A7C15L) >>> 56);
+        return root.resolve(DAY_DIRECTORIES.format(Instant.ofEpochMilli(receipt.getPaidAt())))
+                .resolve(String.format("%02x", shard))
+                .resolve("payment_receipt_" + id + ".pdf");
+    }
+
+    // The indexed file for a payment, or null if it has none or the file is gone
+    public Entry find(long paymentId) throws SQLException {
+        try (Connection conn = MyJDBC.getConnection();
+             PreparedStatement ps = conn.prepareStatement(FIND)) {
+            ps.setLong(1, paymentId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return null;
+                Path path = root.resolve(rs.getString("path"));
+                return Files.isRegularFile(path) ? new Entry(path, rs.getString("content_hash")) : null;
+            }
+        }
+    }
+
+    // The indexed file for this receipt, if it was rendered from the same contents
+    public Path findUnchanged(Receipt receipt) throws SQLException {
+        Entry entry = find(receipt.getPaymentId());
+        return entry != null && entry.getContentHash().equals(contentHash(receipt)) ? entry.getPath() : null;
+    }
+
+    // Records the file a receipt was written to
+    public void index(Receipt receipt, Path path) throws SQLException {
+        try (Connection conn = MyJDBC.getConnection();
+             PreparedStatement ps = conn.prepareStatement(UPSERT)) {
+            ps.setLong(1, receipt.getPaymentId());
+            ps.setString(2, root.relativize(path).toString().replace('\\', '/'));
+            ps.setString(3, contentHash(receipt));
+            ps.executeUpdate();
+        }
+    }
+
+    // Reads a payment back from the payments table, for reprinting; null if there is no such payment
+    public Receipt loadPayment(long paymentId) throws SQLException {
+        try (Connection conn = MyJDBC.getConnection();
+             PreparedStatement ps = conn.prepareStatement(PAYMENT)) {
+            ps.setLong(1, paymentId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return null;
+                return new Receipt(rs.getLong("id"), rs.getString("username"), rs.getDouble("amount"),
+                        rs.getString("payment_type"), rs.getString("account_number"), rs.getString("card_number"),
+                        rs.getTimestamp("payment_time").getTime());
+            }
+        }
+    }
+
+    // SHA-256 of everything printed on the receipt, as hex
+    static String contentHash(Receipt receipt) {
+        String fields = receipt.getPaymentId() + "\0" + receipt.getUsername() + "\0" + receipt.getAmount() + "\0"
+                + receipt.getPaymentType() + "\0" + receipt.getAccountNumber() + "\0" + receipt.getCardNumber() + "\0"
+                + receipt.getPaidAt() / 1000; // The receipt shows whole seconds
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(fields.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+}
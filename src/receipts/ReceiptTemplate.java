@@ -0,0 +1,130 @@
+package receipts;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.Element;
+import com.itextpdf.text.Font;
+import com.itextpdf.text.PageSize;
+import com.itextpdf.text.Paragraph;
+import com.itextpdf.text.Rectangle;
+import com.itextpdf.text.pdf.BaseFont;
+import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfImportedPage;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+// The fixed part of a payment receipt - title, rule and field labels - laid out once into a one-page PDF
+// held in memory. A receipt imports that page as a form XObject and only writes its field values at fixed
+// positions, so per receipt there is no paragraph layout and no font lookup: the fonts are built once here.
+// PdfReader is not thread-safe, so each rendering thread parses the template once into its own reader.
+// Many receipts can also share one document (see ReceiptExport); the template is then written to it only once.
+public class ReceiptTemplate {
+    private static final Rectangle PAGE = PageSize.A4;
+    private static final float LEFT = 36;
+    private static final float VALUE_X = 150;
+    private static final float TITLE_Y = PAGE.getHeight() - 60;
+    private static final float FIRST_LINE_Y = TITLE_Y - 50;
+    private static final float LINE_HEIGHT = 20;
+    private static final float FONT_SIZE = 12;
+    // Receipt lines in page order; the account or card line is the only one whose label varies
+    private static final String[] LABELS = {"Receipt No:", "Username:", "Amount:", "Type:", null, "Time:"};
+    private static final int ACCOUNT_LINE = 4;
+
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private final BaseFont regular;
+    private final byte[] template;
+    private final ThreadLocal<PdfReader> readers;
+
+    public ReceiptTemplate() throws IOException, DocumentException {
+        regular = BaseFont.createFont(BaseFont.HELVETICA, BaseFont.WINANSI, BaseFont.NOT_EMBEDDED);
+        BaseFont bold = BaseFont.createFont(BaseFont.HELVETICA_BOLD, BaseFont.WINANSI, BaseFont.NOT_EMBEDDED);
+        template = buildTemplate(new Font(bold, 18), new Font(regular, FONT_SIZE));
+        readers = ThreadLocal.withInitial(() -> {
+            try {
+                return new PdfReader(template);
+            } catch (IOException e) {
+                throw new IllegalStateException("Receipt template unreadable", e);
+            }
+        });
+    }
+
+    // Writes one receipt as a complete PDF. Does not close out.
+    public void render(Receipt receipt, OutputStream out) throws DocumentException {
+        Document doc = new Document(PAGE, 0, 0, 0, 0);
+        PdfWriter writer = PdfWriter.getInstance(doc, out);
+        writer.setCloseStream(false);
+        doc.open();
+        doc.addTitle("Payment Receipt");
+        drawPage(writer, receipt);
+        doc.close();
+    }
+
+    // Draws one receipt on the writer's current page, which must be empty
+    void drawPage(PdfWriter writer, Receipt receipt) {
+        PdfContentByte canvas = writer.getDirectContent();
+        // Within one writer the same reader page is imported once, however many pages show it
+        PdfImportedPage page = writer.getImportedPage(readers.get(), 1);
+        canvas.addTemplate(page, 0, 0);
+
+        canvas.beginText();
+        canvas.setFontAndSize(regular, FONT_SIZE);
+        String[] values = {
+                String.valueOf(receipt.getPaymentId()),
+                receipt.getUsername(),
+                "BDT " + receipt.getAmount(),
+                receipt.getPaymentType(),
+                null,
+                TIME_FORMAT.format(Instant.ofEpochMilli(receipt.getPaidAt()))
+        };
+        for (int i = 0; i < values.length; i++) {
+            float y = FIRST_LINE_Y - i * LINE_HEIGHT;
+            if (i == ACCOUNT_LINE) {
+                // Label and value both vary; a line without either is left blank
+                String label = receipt.getAccountNumber() != null ? "Account No:" : receipt.getCardNumber() != null ? "Card No:" : null;
+                if (label == null) continue;
+                canvas.showTextAligned(Element.ALIGN_LEFT, label, LEFT, y, 0);
+                values[i] = receipt.getAccountNumber() != null ? receipt.getAccountNumber() : receipt.getCardNumber();
+            }
+            canvas.showTextAligned(Element.ALIGN_LEFT, values[i] != null ? values[i] : "", VALUE_X, y, 0);
+        }
+        canvas.endText();
+    }
+
+    Rectangle getPageSize() {
+        return PAGE;
+    }
+
+    private static byte[] buildTemplate(Font titleFont, Font labelFont) throws DocumentException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Document doc = new Document(PAGE, 0, 0, 0, 0);
+        PdfWriter writer = PdfWriter.getInstance(doc, bytes);
+        doc.open();
+        // An empty page is dropped on close, so the page always carries something
+        doc.add(new Paragraph(" "));
+        PdfContentByte canvas = writer.getDirectContent();
+        canvas.beginText();
+        canvas.setFontAndSize(titleFont.getBaseFont(), titleFont.getSize());
+        canvas.showTextAligned(Element.ALIGN_LEFT, "EasyTech Bookstore Payment Receipt", LEFT, TITLE_Y, 0);
+        canvas.setFontAndSize(labelFont.getBaseFont(), labelFont.getSize());
+        for (int i = 0; i < LABELS.length; i++) {
+            if (LABELS[i] != null) {
+                canvas.showTextAligned(Element.ALIGN_LEFT, LABELS[i], LEFT, FIRST_LINE_Y - i * LINE_HEIGHT, 0);
+            }
+        }
+        canvas.endText();
+        canvas.moveTo(LEFT, TITLE_Y - 15);
+        canvas.lineTo(PAGE.getWidth() - LEFT, TITLE_Y - 15);
+        canvas.stroke();
+        doc.close();
+        return bytes.toByteArray();
+    }
+}